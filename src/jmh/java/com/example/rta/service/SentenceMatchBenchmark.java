@@ -0,0 +1,88 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import com.example.rta.dto.NormalizedSentenceDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.AhoCorasick;
+import util.FrenchCorpus;
+import util.SentenceNormalizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching of the sentences relationships job, for dictionaries of 1k, 10k and 100k content editorial sentences:
+ * the whole search of one normalized libelle, and the removal of the contained matches alone, fed with the
+ * occurrences the automaton reported for that libelle.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class SentenceMatchBenchmark {
+	private static final int LIBELLES = 10_000;
+
+	@Param({"1000", "10000", "100000"})
+	int sentenceCount;
+
+	private ReportService reportService;
+	private List<NormalizedSentenceDto> sentences;
+	private AhoCorasick automaton;
+	private String[] libelles;
+	private ReportService.SentenceOccurrences[] occurrences;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		reportService = new ReportService(null, null, null, null, new RtaProperties(),
+				new PipelineMetrics(new SimpleMeterRegistry()), null, null, null);
+
+		FrenchCorpus corpus = new FrenchCorpus(42);
+		SentenceNormalizer normalizer = new SentenceNormalizer();
+		List<String> rawSentences = corpus.sentences(sentenceCount);
+		sentences = new ArrayList<>(sentenceCount);
+		for (int i = 0; i < sentenceCount; i++) {
+			sentences.add(new NormalizedSentenceDto(i + 1, normalizer.normalize(rawSentences.get(i)).result()));
+		}
+		automaton = new AhoCorasick(sentences.stream().map(NormalizedSentenceDto::normalizedSentence).toList());
+
+		libelles = new String[LIBELLES];
+		occurrences = new ReportService.SentenceOccurrences[LIBELLES];
+		List<String> rawLibelles = corpus.libelles(LIBELLES, rawSentences);
+		for (int i = 0; i < LIBELLES; i++) {
+			libelles[i] = normalizer.normalize(rawLibelles.get(i)).result();
+			occurrences[i] = new ReportService.SentenceOccurrences();
+			automaton.findMatches(libelles[i], occurrences[i]);
+		}
+	}
+
+	private int nextIndex() {
+		int index = next;
+		next = (next + 1) % LIBELLES;
+		return index;
+	}
+
+	@Benchmark
+	public List<Integer> findSentenceMatches() {
+		return reportService.findSentenceMatches(libelles[nextIndex()], sentences, automaton);
+	}
+
+	@Benchmark
+	public List<Integer> removeDuplicatedMatchesAndGetIds() {
+		return reportService.removeDuplicatedMatchesAndGetIds(occurrences[nextIndex()], sentences);
+	}
+}
@@ -0,0 +1,71 @@
+package util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text extraction of the blocxml documents, for documents of 2, 20 (about the size of a real one) and 100 sections:
+ * the StAX reader against the former DOM + XPath extraction.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BlocXmlBenchmark {
+	private static final int DOCUMENTS = 64;
+
+	@Param({"2", "20", "100"})
+	int sections;
+
+	private String[] documents;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		FrenchCorpus corpus = new FrenchCorpus(42);
+		List<String> libelles = corpus.libelles(5000, corpus.sentences(500));
+		documents = new String[DOCUMENTS];
+		for (int i = 0; i < DOCUMENTS; i++) {
+			documents[i] = corpus.blocXml(sections, libelles);
+		}
+	}
+
+	private String nextDocument() {
+		String document = documents[next];
+		next = (next + 1) % DOCUMENTS;
+		return document;
+	}
+
+	// the DOM + XPath extraction the StAX reader replaced, as checked against by ParseXMLTest
+	@Benchmark
+	public List<String> referenceParseXml() throws Exception {
+		return ParseXMLTest.referenceParseXml(nextDocument());
+	}
+
+	@Benchmark
+	public List<String> parseXml() throws XMLStreamException {
+		return ParseXML.parseXml(nextDocument());
+	}
+
+	// the way the bloc contenu job reads the documents
+	@Benchmark
+	public void forEachText(Blackhole blackhole) throws XMLStreamException {
+		ParseXML.forEachText(nextDocument(), blackhole::consume);
+	}
+}
@@ -0,0 +1,106 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of French text shaped like the MAD tables: content editorial sentences, libelles (short
+ * technical labels with capitals, accents, punctuation, figures and the odd line break, half of them quoting a
+ * sentence) and blocxml documents whose paragraphs are libelles.
+ */
+public final class FrenchCorpus {
+	private static final String[] WORDS = {
+			"appuyer", "sur", "la", "pédale", "de", "frein", "contrôler", "le", "niveau", "d'huile", "moteur",
+			"véhicule", "électrique", "clé", "à", "être", "déposer", "reposer", "remplacer", "vérifier", "serrer",
+			"desserrer", "au", "couple", "les", "vis", "écrou", "roue", "avant", "arrière", "gauche", "droite",
+			"boîte", "vitesses", "embrayage", "courroie", "distribution", "pompe", "à", "eau", "liquide",
+			"refroidissement", "batterie", "câble", "connecteur", "capteur", "température", "pression", "pneumatique",
+			"témoin", "allumé", "tableau", "bord", "siège", "ceinture", "sécurité", "airbag", "démarrage", "arrêt",
+			"régénération", "filtre", "particules", "injecteur", "gazole", "essence", "réservoir", "trappe", "capot",
+			"hayon", "rétroviseur", "éclairage", "feux", "croisement", "phare", "antibrouillard", "climatisation",
+			"habitacle", "dégivrage", "pare-brise", "essuie-glace", "lave-glace", "entretien", "révision", "garantie",
+			"kilomètres", "mois", "et", "ou", "du", "des", "en", "pour", "avec", "sans", "puis", "une", "un"
+	};
+	private static final String[] FIGURES = {"1", "2", "4", "10", "12,5", "0.8", "3.14", "15 000", "30 Nm", "2,5 bar"};
+	private static final String[] SEPARATORS = {" ", " ", " ", " ", " ", " ", ", ", ". ", " : ", " ; ", " - ", "\n", "\r\n"};
+
+	private final Random random;
+
+	public FrenchCorpus(long seed) {
+		this.random = new Random(seed);
+	}
+
+	public List<String> sentences(int count) {
+		List<String> sentences = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			sentences.add(words(3 + random.nextInt(8)));
+		}
+		return sentences;
+	}
+
+	public List<String> libelles(int count, List<String> quotedSentences) {
+		List<String> libelles = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			libelles.add(libelle(quotedSentences));
+		}
+		return libelles;
+	}
+
+	// 2 to 15 words, capitalized, with punctuation and figures; half of them quote one of the sentences
+	public String libelle(List<String> quotedSentences) {
+		StringBuilder sb = new StringBuilder();
+		int words = 2 + random.nextInt(14);
+		int quoteAt = !quotedSentences.isEmpty() && random.nextBoolean() ? random.nextInt(words) : -1;
+
+		for (int i = 0; i < words; i++) {
+			if (i > 0) sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+			if (i == quoteAt) {
+				sb.append(quotedSentences.get(random.nextInt(quotedSentences.size())));
+			} else if (random.nextInt(10) == 0) {
+				sb.append(FIGURES[random.nextInt(FIGURES.length)]);
+			} else {
+				sb.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+		}
+
+		if (random.nextInt(4) == 0) sb.append(random.nextBoolean() ? "." : " !");
+		sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+		return random.nextInt(20) == 0 ? "  " + sb + " " : sb.toString();
+	}
+
+	// sections of a title and paragraphs, with inline markup, entities and CDATA like the BLOC_CONTENU documents
+	public String blocXml(int sections, List<String> libelles) {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<bloc>\n");
+		for (int section = 0; section < sections; section++) {
+			sb.append("  <section id=\"s").append(section).append("\">\n    <titre>");
+			sb.append(escape(libelles.get(random.nextInt(libelles.size()))));
+			sb.append("</titre>\n");
+
+			for (int paragraph = 0; paragraph < 6; paragraph++) {
+				String text = libelles.get(random.nextInt(libelles.size()));
+				switch (random.nextInt(4)) {
+					case 0 -> sb.append("    <p><![CDATA[").append(text).append("]]></p>\n");
+					case 1 -> sb.append("    <p>").append(escape(text)).append(" <b>")
+							.append(escape(words(2))).append("</b></p>\n");
+					default -> sb.append("    <p>").append(escape(text)).append("</p>\n");
+				}
+			}
+			sb.append("  </section>\n");
+		}
+		return sb.append("</bloc>\n").toString();
+	}
+
+	private String words(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) sb.append(' ');
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
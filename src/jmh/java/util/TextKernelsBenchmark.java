@@ -0,0 +1,58 @@
+package util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kernels applied to every libelle: the normalization of the normalize jobs and the cleanup of the blocxml phrases
+ * before their lookup. Each call takes the next libelle of a corpus of corpusSize, so that the larger corpus does not
+ * fit in the caches.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TextKernelsBenchmark {
+	@Param({"1000", "100000"})
+	int corpusSize;
+
+	private String[] libelles;
+	private int next;
+	private final SentenceNormalizer normalizer = new SentenceNormalizer();
+
+	@Setup
+	public void setUp() {
+		FrenchCorpus corpus = new FrenchCorpus(42);
+		libelles = corpus.libelles(corpusSize, corpus.sentences(500)).toArray(String[]::new);
+	}
+
+	private String nextLibelle() {
+		String libelle = libelles[next];
+		next = next + 1 == libelles.length ? 0 : next + 1;
+		return libelle;
+	}
+
+	// one normalizer per chunk in NormalizeService, hence reused here
+	@Benchmark
+	public String normalizeSentence() {
+		return normalizer.normalize(nextLibelle()).result();
+	}
+
+	@Benchmark
+	public String trimAndLowerCaseAndRemoveLineBreaks() {
+		return ParseXML.trimAndLowerCaseAndRemoveLineBreaks(nextLibelle());
+	}
+}
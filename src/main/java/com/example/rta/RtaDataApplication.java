@@ -1,12 +1,16 @@
 package com.example.rta;
 
+import com.example.rta.model.repository.StreamingJpaRepository;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
+@EnableJpaRepositories(repositoryBaseClass = StreamingJpaRepository.class)
 public class RtaDataApplication {
 	public static void main(String[] args) {
 		SpringApplication.run(RtaDataApplication.class, args);
 	}
 }
-
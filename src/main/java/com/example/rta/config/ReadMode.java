@@ -0,0 +1,11 @@
+package com.example.rta.config;
+
+/**
+ * How the jobs read their source tables.
+ */
+public enum ReadMode {
+	// paged repository queries: WHERE id > :lastId ORDER BY id
+	KEYSET,
+	// one forward-only cursor over a stateless session, no persistence context
+	STREAM
+}
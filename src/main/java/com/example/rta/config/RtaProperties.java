@@ -0,0 +1,297 @@
+package com.example.rta.config;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+import util.RecordFormat;
+
+/**
+ * Tunables of the normalization and relationship jobs, bound from the {@code rta.*} keys of application.yml, and
+ * validated at startup.
+ */
+@ConfigurationProperties(prefix = "rta")
+@Validated
+public class RtaProperties {
+	private final Read read = new Read();
+	private final Write write = new Write();
+	private final Jobs jobs = new Jobs();
+	private final Dictionary dictionary = new Dictionary();
+	@Valid
+	private final Fuzzy fuzzy = new Fuzzy();
+	private final NotFound notFound = new NotFound();
+	private final Match match = new Match();
+
+	public Read getRead() {
+		return read;
+	}
+
+	public Write getWrite() {
+		return write;
+	}
+
+	public Jobs getJobs() {
+		return jobs;
+	}
+
+	public Dictionary getDictionary() {
+		return dictionary;
+	}
+
+	public Fuzzy getFuzzy() {
+		return fuzzy;
+	}
+
+	public NotFound getNotFound() {
+		return notFound;
+	}
+
+	public Match getMatch() {
+		return match;
+	}
+
+	public static class Read {
+		private ReadMode mode = ReadMode.KEYSET;
+
+		// rows fetched per round trip by the streaming cursor
+		private int fetchSize = 1000;
+
+		// pages of the relationship jobs fetched ahead while the current one is processed; 0 to fetch on demand
+		private int prefetchPages = 1;
+
+		// ...as long as the pages waiting hold less than this estimated heap
+		private int prefetchMemoryMb = 256;
+
+		public ReadMode getMode() {
+			return mode;
+		}
+
+		public void setMode(ReadMode mode) {
+			this.mode = mode;
+		}
+
+		public int getFetchSize() {
+			return fetchSize;
+		}
+
+		public void setFetchSize(int fetchSize) {
+			this.fetchSize = fetchSize;
+		}
+
+		public int getPrefetchPages() {
+			return prefetchPages;
+		}
+
+		public void setPrefetchPages(int prefetchPages) {
+			this.prefetchPages = prefetchPages;
+		}
+
+		public int getPrefetchMemoryMb() {
+			return prefetchMemoryMb;
+		}
+
+		public void setPrefetchMemoryMb(int prefetchMemoryMb) {
+			this.prefetchMemoryMb = prefetchMemoryMb;
+		}
+	}
+
+	public static class Write {
+		private WriteSink sink = WriteSink.CSV;
+
+		// rows per JDBC batch and per transaction of the database sink
+		private int batchSize = 5000;
+
+		// encoding of the output files; the files holding text (normalized rows, phrases) are csv when binary
+		private RecordFormat format = RecordFormat.CSV;
+
+		// relationship records in id order, the same from one run to the next, instead of in completion order
+		private boolean ordered = false;
+
+		public WriteSink getSink() {
+			return sink;
+		}
+
+		public void setSink(WriteSink sink) {
+			this.sink = sink;
+		}
+
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		public void setBatchSize(int batchSize) {
+			this.batchSize = batchSize;
+		}
+
+		public RecordFormat getFormat() {
+			return format;
+		}
+
+		public void setFormat(RecordFormat format) {
+			this.format = format;
+		}
+
+		public boolean isOrdered() {
+			return ordered;
+		}
+
+		public void setOrdered(boolean ordered) {
+			this.ordered = ordered;
+		}
+	}
+
+	public static class Jobs {
+		// jobs running at the same time, the others wait in the queue
+		private int maxConcurrent = 2;
+
+		// finished jobs whose status stays available
+		private int retainedFinished = 100;
+
+		public int getMaxConcurrent() {
+			return maxConcurrent;
+		}
+
+		public void setMaxConcurrent(int maxConcurrent) {
+			this.maxConcurrent = maxConcurrent;
+		}
+
+		public int getRetainedFinished() {
+			return retainedFinished;
+		}
+
+		public void setRetainedFinished(int retainedFinished) {
+			this.retainedFinished = retainedFinished;
+		}
+	}
+
+	public static class Dictionary {
+		// keys of the libelle dictionaries in direct memory (bounded by -XX:MaxDirectMemorySize) instead of the heap
+		private boolean offHeap = false;
+
+		// snapshots of the match dictionaries, reused while their table is unchanged; blank to always rebuild them
+		private String snapshotDirectory = "snapshots";
+
+		// memory of the match structures kept between the runs, least recently used evicted first; 0 to keep none
+		private int cacheMemoryMb = 2048;
+
+		public boolean isOffHeap() {
+			return offHeap;
+		}
+
+		public void setOffHeap(boolean offHeap) {
+			this.offHeap = offHeap;
+		}
+
+		public String getSnapshotDirectory() {
+			return snapshotDirectory;
+		}
+
+		public void setSnapshotDirectory(String snapshotDirectory) {
+			this.snapshotDirectory = snapshotDirectory;
+		}
+
+		public int getCacheMemoryMb() {
+			return cacheMemoryMb;
+		}
+
+		public void setCacheMemoryMb(int cacheMemoryMb) {
+			this.cacheMemoryMb = cacheMemoryMb;
+		}
+	}
+
+	public static class Fuzzy {
+		// nearest libelle of the bloc phrases found in no dictionary, written to bloc_contenu_fuzzy.csv
+		private boolean enabled = false;
+
+		// edits (insertion, deletion or substitution of a char) allowed between a phrase and a libelle
+		@Min(0)
+		private int maxDistance = 2;
+
+		// ...and at most one edit per that many chars of the phrase, so that short phrases need an exact match
+		@Min(1)
+		private int charsPerEdit = 5;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getMaxDistance() {
+			return maxDistance;
+		}
+
+		public void setMaxDistance(int maxDistance) {
+			this.maxDistance = maxDistance;
+		}
+
+		public int getCharsPerEdit() {
+			return charsPerEdit;
+		}
+
+		public void setCharsPerEdit(int charsPerEdit) {
+			this.charsPerEdit = charsPerEdit;
+		}
+	}
+
+	public static class NotFound {
+		// heap of the exact counts of the bloc phrases found in no dictionary
+		private int memoryBudgetMb = 64;
+
+		// counters per row of the Count-Min sketch taking over once the budget is reached
+		private int sketchWidth = 1 << 18;
+
+		// most frequent phrases reported among the ones counted by the sketch
+		private int heavyHitters = 1000;
+
+		public int getMemoryBudgetMb() {
+			return memoryBudgetMb;
+		}
+
+		public void setMemoryBudgetMb(int memoryBudgetMb) {
+			this.memoryBudgetMb = memoryBudgetMb;
+		}
+
+		public int getSketchWidth() {
+			return sketchWidth;
+		}
+
+		public void setSketchWidth(int sketchWidth) {
+			this.sketchWidth = sketchWidth;
+		}
+
+		public int getHeavyHitters() {
+			return heavyHitters;
+		}
+
+		public void setHeavyHitters(int heavyHitters) {
+			this.heavyHitters = heavyHitters;
+		}
+	}
+
+	public static class Match {
+		// threads of the sentence matching and bloc scanning, shared by the running jobs; 0 for one per processor
+		private int parallelism = 0;
+
+		// tasks per thread a page is split into: more balance the uneven entities, fewer cut the scheduling overhead
+		private int batchesPerThread = 4;
+
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		public void setParallelism(int parallelism) {
+			this.parallelism = parallelism;
+		}
+
+		public int getBatchesPerThread() {
+			return batchesPerThread;
+		}
+
+		public void setBatchesPerThread(int batchesPerThread) {
+			this.batchesPerThread = batchesPerThread;
+		}
+	}
+}
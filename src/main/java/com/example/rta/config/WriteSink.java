@@ -0,0 +1,11 @@
+package com.example.rta.config;
+
+/**
+ * Where the normalize jobs write their rows.
+ */
+public enum WriteSink {
+	// one csv file per job in the working directory, to be imported by hand
+	CSV,
+	// batched inserts into the Normalized* tables, replacing their content
+	DATABASE
+}
@@ -0,0 +1,42 @@
+package com.example.rta.controller;
+
+import com.example.rta.dto.JobStatus;
+import com.example.rta.service.JobService;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+@RestController
+public class JobsController {
+	private final JobService jobService;
+
+	public JobsController(JobService jobService) {
+		this.jobService = jobService;
+	}
+
+	@GetMapping("/jobs")
+	public List<JobStatus> jobs() {
+		return jobService.statuses();
+	}
+
+	// rows processed, throughput and ETA of a job
+	@GetMapping("/jobs/{id}")
+	public JobStatus job(@PathVariable String id) {
+		return jobService.status(id).orElseThrow(() -> unknownJob(id));
+	}
+
+	// stops the job after the page or entity it is on; an interrupted relationship job resumes from its checkpoint
+	@DeleteMapping("/jobs/{id}")
+	public JobStatus cancel(@PathVariable String id) {
+		return jobService.cancel(id).orElseThrow(() -> unknownJob(id));
+	}
+
+	private static ResponseStatusException unknownJob(String id) {
+		return new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown job: " + id);
+	}
+}
@@ -1,52 +1,118 @@
 package com.example.rta.controller;
 
+import com.example.rta.dto.JobStatus;
+import com.example.rta.dto.Shard;
+import com.example.rta.service.JobProgress;
+import com.example.rta.service.JobService;
 import com.example.rta.service.NormalizeService;
 import com.example.rta.service.ReportService;
+import com.example.rta.service.ShardMerger;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.util.function.Consumer;
+
+/**
+ * Starts the jobs. Each endpoint returns as soon as the job is queued; follow it with the /jobs endpoints.
+ * The relationship jobs may be split across instances: each one runs a shard, given either as shardIndex of
+ * shardCount or as an inclusive firstId-lastId range, then /mergeShards combines their outputs.
+ * A job is refused with 409 Conflict while a job of the same name and shard is queued or running.
+ */
 @RestController
 public class LinesController {
 	private final ReportService reportService;
 	private final NormalizeService normalizeService;
+	private final JobService jobService;
+	private final ShardMerger shardMerger;
 
-	public LinesController(ReportService reportService,  NormalizeService normalizeService) {
+	public LinesController(ReportService reportService, NormalizeService normalizeService, JobService jobService,
+						   ShardMerger shardMerger) {
 		this.normalizeService = normalizeService;
 		this.reportService = reportService;
+		this.jobService = jobService;
+		this.shardMerger = shardMerger;
 	}
 
 	@PutMapping("/generateBlocContenuRelationships")
-	public Integer generateBlocContenuRelationships() throws Exception {
-		reportService.generateBlocContenuRelationships();
-
-		return 0;
+	public JobStatus generateBlocContenuRelationships(@RequestParam(required = false) Integer shardIndex,
+													   @RequestParam(required = false) Integer shardCount,
+													   @RequestParam(required = false) Integer firstId,
+													   @RequestParam(required = false) Integer lastId) {
+		Shard shard = shard(shardIndex, shardCount, firstId, lastId);
+		return submit("generateBlocContenuRelationships" + shard.suffix(), progress -> {
+			try {
+				reportService.generateBlocContenuRelationships(shard, progress);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException("Error generating bloc contenu relationships", e);
+			}
+		});
 	}
 
 	@PutMapping("/generateSentencesRelationships/{wordCount}")
-	public Integer generateSentencesRelationships(@PathVariable int wordCount) {
-		reportService.generateSentencesRelationships(wordCount);
-		return 0;
+	public JobStatus generateSentencesRelationships(@PathVariable int wordCount,
+													 @RequestParam(required = false) Integer shardIndex,
+													 @RequestParam(required = false) Integer shardCount,
+													 @RequestParam(required = false) Integer firstId,
+													 @RequestParam(required = false) Integer lastId) {
+		Shard shard = shard(shardIndex, shardCount, firstId, lastId);
+		return submit("generateSentencesRelationships" + shard.suffix(),
+				progress -> reportService.generateSentencesRelationships(wordCount, shard, progress));
 	}
 
-	@PutMapping("/normalizeLibelle")
-	public Integer normalizeLibelle() {
-		normalizeService.normalizeLibelle();
+	@PutMapping("/mergeShards")
+	public JobStatus mergeShards() {
+		return submit("mergeShards", shardMerger::mergeShards);
+	}
 
-		return 0;
+	@PutMapping("/normalizeLibelle")
+	public JobStatus normalizeLibelle(@RequestParam(defaultValue = "false") boolean incremental) {
+		return submit("normalizeLibelle", progress -> normalizeService.normalizeLibelle(incremental, progress));
 	}
 
 	@PutMapping("/normalizeLibelleExtra")
-	public Integer normalizeLibelleExtra() {
-		normalizeService.normalizeLibelleExtra();
-
-		return 0;
+	public JobStatus normalizeLibelleExtra(@RequestParam(defaultValue = "false") boolean incremental) {
+		return submit("normalizeLibelleExtra",
+				progress -> normalizeService.normalizeLibelleExtra(incremental, progress));
 	}
 
 	@PutMapping("/normalizeContentEditorial")
-	public Integer normalizeContentEditorial() {
-		normalizeService.normalizeContentEditorial();
+	public JobStatus normalizeContentEditorial(@RequestParam(defaultValue = "false") boolean incremental) {
+		return submit("normalizeContentEditorial",
+				progress -> normalizeService.normalizeContentEditorial(incremental, progress));
+	}
+
+	private JobStatus submit(String type, Consumer<JobProgress> work) {
+		try {
+			return jobService.submit(type, work);
+		} catch (IllegalStateException e) {
+			throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+		}
+	}
 
-		return 0;
+	// Whole table unless a shard is given, either by index or by id range
+	private static Shard shard(Integer shardIndex, Integer shardCount, Integer firstId, Integer lastId) {
+		try {
+			if (firstId != null || lastId != null) {
+				if (firstId == null || lastId == null || shardIndex != null || shardCount != null) {
+					throw new IllegalArgumentException("Give both firstId and lastId, without shardIndex and shardCount");
+				}
+				return Shard.ids(firstId, lastId);
+			}
+			if (shardIndex != null || shardCount != null) {
+				if (shardIndex == null || shardCount == null) {
+					throw new IllegalArgumentException("Give both shardIndex and shardCount");
+				}
+				return Shard.of(shardIndex, shardCount);
+			}
+			return Shard.ALL;
+		} catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+		}
 	}
 }
@@ -0,0 +1,4 @@
+package com.example.rta.dto;
+
+// id and xml document of a BlocContenu row
+public record BlocXmlDto(Integer id, String blocxml) { }
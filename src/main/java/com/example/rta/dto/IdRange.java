@@ -0,0 +1,6 @@
+package com.example.rta.dto;
+
+// inclusive id bounds; both null for an empty table
+public record IdRange(Integer min, Integer max) {
+	public static final IdRange ALL = new IdRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+}
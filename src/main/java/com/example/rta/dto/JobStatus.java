@@ -0,0 +1,19 @@
+package com.example.rta.dto;
+
+import java.time.Instant;
+
+/**
+ * Snapshot of a submitted job. totalRows, rowsPerSecond and etaSeconds are null while unknown.
+ */
+public record JobStatus(String id, String type, JobState state, long rowsProcessed, Long totalRows,
+						Double rowsPerSecond, Long etaSeconds, Instant submittedAt, Instant startedAt,
+						Instant finishedAt, String error) {
+
+	public enum JobState {
+		QUEUED,
+		RUNNING,
+		SUCCEEDED,
+		FAILED,
+		CANCELLED
+	}
+}
@@ -0,0 +1,3 @@
+package com.example.rta.dto;
+
+public record NormalizedRow(int id, String normalizedSentence, int wordCount, String originalSentence) { }
@@ -0,0 +1,4 @@
+package com.example.rta.dto;
+
+// id and original text of a normalized libelle row
+public record OriginalLibelleDto(Integer id, String originalLibelle) { }
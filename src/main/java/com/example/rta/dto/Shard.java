@@ -0,0 +1,54 @@
+package com.example.rta.dto;
+
+import java.util.function.Supplier;
+
+/**
+ * Slice of a table scanned by one instance of a relationship job: either the index-th of count equal id ranges between
+ * the lowest and the highest id of the table, or an explicit inclusive id range. The first and the last of the count
+ * ranges are open-ended, so that together they cover every id. Each shard writes its outputs under its own
+ * {@link #suffix()}; the /mergeShards endpoint combines them once every shard completed.
+ * Ranges of equal width hold equal row counts only when the ids are dense: prefer explicit ranges otherwise.
+ */
+public record Shard(int index, int count, Integer firstId, Integer lastId) {
+	public static final Shard ALL = new Shard(0, 1, null, null);
+
+	public static Shard of(int index, int count) {
+		if (count < 1 || index < 0 || index >= count) {
+			throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+		}
+		return new Shard(index, count, null, null);
+	}
+
+	public static Shard ids(int firstId, int lastId) {
+		if (firstId > lastId) throw new IllegalArgumentException("Invalid id range " + firstId + "-" + lastId);
+		return new Shard(0, 1, firstId, lastId);
+	}
+
+	public boolean isAll() {
+		return firstId == null && count == 1;
+	}
+
+	/**
+	 * Inserted before the extension of the output and checkpoint files: empty for the whole table.
+	 */
+	public String suffix() {
+		if (firstId != null) return ".ids-" + firstId + "-" + lastId;
+		return count == 1 ? "" : ".shard-" + index + "-of-" + count;
+	}
+
+	/**
+	 * Inclusive id bounds of the shard in a table, whose own range is only queried for the index / count shards.
+	 */
+	public IdRange bounds(Supplier<IdRange> tableRange) {
+		if (firstId != null) return new IdRange(firstId, lastId);
+		if (count == 1) return IdRange.ALL;
+
+		IdRange table = tableRange.get();
+		// an empty table is split like a table of one id, so that the shards still cover every id once
+		if (table.min() == null) table = new IdRange(0, 0);
+		long span = (long) table.max() - table.min() + 1;
+		int first = index == 0 ? Integer.MIN_VALUE : (int) (table.min() + span * index / count);
+		int last = index == count - 1 ? Integer.MAX_VALUE : (int) (table.min() + span * (index + 1) / count - 1);
+		return new IdRange(first, last);
+	}
+}
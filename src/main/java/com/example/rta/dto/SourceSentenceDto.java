@@ -0,0 +1,4 @@
+package com.example.rta.dto;
+
+// id and text of a row of a table to normalize
+public record SourceSentenceDto(Integer id, String sentence) { }
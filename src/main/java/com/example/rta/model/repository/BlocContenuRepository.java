@@ -1,7 +1,37 @@
 package com.example.rta.model.repository;
 
+import com.example.rta.dto.BlocXmlDto;
+import com.example.rta.dto.IdRange;
 import com.example.rta.model.entity.BlocContenu;
-import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface BlocContenuRepository extends JpaRepository<BlocContenu, Integer> {
-}
\ No newline at end of file
+import java.util.stream.Stream;
+
+public interface BlocContenuRepository extends StreamingRepository<BlocContenu, Integer> {
+	// keyset (seek) page: WHERE id > :lastId AND id <= :maxId ORDER BY id (sorted by the pageable), without OFFSET or
+	// COUNT(*)
+	@Transactional(readOnly = true)
+	@Query("SELECT new com.example.rta.dto.BlocXmlDto(b.id, b.blocxml) FROM BlocContenu b"
+			+ " WHERE b.id > :lastId AND b.id <= :maxId")
+	Slice<BlocXmlDto> findByIdGreaterThanAndIdLessThanEqual(Integer lastId, Integer maxId, Pageable pageable);
+
+	// rows left to scan after :lastId, for progress reporting
+	long countByIdGreaterThanAndIdLessThanEqual(Integer lastId, Integer maxId);
+
+	// cursor over WHERE id > :lastId AND id <= :maxId ORDER BY id
+	default Stream<BlocXmlDto> streamByIdGreaterThanAndIdLessThanEqual(Integer lastId, Integer maxId, int fetchSize) {
+		Specification<BlocContenu> inRange = (root, query, cb) -> cb.and(
+				cb.greaterThan(root.get("id"), lastId),
+				cb.lessThanOrEqualTo(root.get("id"), maxId));
+		return streamAll(inRange, BlocXmlDto.class, fetchSize, "id", "blocxml");
+	}
+
+	// lowest and highest id, to cut the table into shards
+	@Transactional(readOnly = true)
+	@Query("SELECT new com.example.rta.dto.IdRange(MIN(b.id), MAX(b.id)) FROM BlocContenu b")
+	IdRange findIdRange();
+}
@@ -1,7 +1,27 @@
 package com.example.rta.model.repository;
 
+import com.example.rta.dto.SourceSentenceDto;
 import com.example.rta.model.entity.ContEditorialSentence;
-import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface ContentEditorialSentenceRepository extends JpaRepository<ContEditorialSentence, Integer> {
+import java.util.stream.Stream;
+
+public interface ContentEditorialSentenceRepository extends StreamingRepository<ContEditorialSentence, Integer> {
+	// keyset (seek) page: WHERE id > :lastId ORDER BY id (sorted by the pageable), without OFFSET or COUNT(*)
+	@Transactional(readOnly = true)
+	@Query("SELECT new com.example.rta.dto.SourceSentenceDto(s.id, s.sentence) FROM ContEditorialSentence s WHERE s.id > :lastId")
+	Slice<SourceSentenceDto> findByIdGreaterThan(Integer lastId, Pageable pageable);
+
+	// rows left to scan after :lastId, for progress reporting
+	long countByIdGreaterThan(Integer lastId);
+
+	// cursor over WHERE id > :lastId ORDER BY id
+	default Stream<SourceSentenceDto> streamByIdGreaterThan(Integer lastId, int fetchSize) {
+		Specification<ContEditorialSentence> afterLastId = (root, query, cb) -> cb.greaterThan(root.get("id"), lastId);
+		return streamAll(afterLastId, SourceSentenceDto.class, fetchSize, "id", "sentence");
+	}
 }
@@ -1,9 +1,29 @@
 package com.example.rta.model.repository;
 
+import com.example.rta.dto.SourceSentenceDto;
 import com.example.rta.model.entity.LibelleExtra;
-import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.stream.Stream;
 
 @Repository
-public interface LibelleExtraRepository extends JpaRepository<LibelleExtra, Integer> {
+public interface LibelleExtraRepository extends StreamingRepository<LibelleExtra, Integer> {
+	// keyset (seek) page: WHERE id > :lastId ORDER BY id (sorted by the pageable), without OFFSET or COUNT(*)
+	@Transactional(readOnly = true)
+	@Query("SELECT new com.example.rta.dto.SourceSentenceDto(s.id, s.libelleOriginal) FROM LibelleExtra s WHERE s.id > :lastId")
+	Slice<SourceSentenceDto> findByIdGreaterThan(Integer lastId, Pageable pageable);
+
+	// rows left to scan after :lastId, for progress reporting
+	long countByIdGreaterThan(Integer lastId);
+
+	// cursor over WHERE id > :lastId ORDER BY id
+	default Stream<SourceSentenceDto> streamByIdGreaterThan(Integer lastId, int fetchSize) {
+		Specification<LibelleExtra> afterLastId = (root, query, cb) -> cb.greaterThan(root.get("id"), lastId);
+		return streamAll(afterLastId, SourceSentenceDto.class, fetchSize, "id", "libelleOriginal");
+	}
 }
@@ -1,7 +1,27 @@
 package com.example.rta.model.repository;
 
+import com.example.rta.dto.SourceSentenceDto;
 import com.example.rta.model.entity.Libelle;
-import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface LibelleRepository extends JpaRepository<Libelle, Integer> {
+import java.util.stream.Stream;
+
+public interface LibelleRepository extends StreamingRepository<Libelle, Integer> {
+	// keyset (seek) page: WHERE id > :lastId ORDER BY id (sorted by the pageable), without OFFSET or COUNT(*)
+	@Transactional(readOnly = true)
+	@Query("SELECT new com.example.rta.dto.SourceSentenceDto(s.id, s.libelleOriginal) FROM Libelle s WHERE s.id > :lastId")
+	Slice<SourceSentenceDto> findByIdGreaterThan(Integer lastId, Pageable pageable);
+
+	// rows left to scan after :lastId, for progress reporting
+	long countByIdGreaterThan(Integer lastId);
+
+	// cursor over WHERE id > :lastId ORDER BY id
+	default Stream<SourceSentenceDto> streamByIdGreaterThan(Integer lastId, int fetchSize) {
+		Specification<Libelle> afterLastId = (root, query, cb) -> cb.greaterThan(root.get("id"), lastId);
+		return streamAll(afterLastId, SourceSentenceDto.class, fetchSize, "id", "libelleOriginal");
+	}
 }
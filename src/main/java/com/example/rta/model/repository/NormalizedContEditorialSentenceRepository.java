@@ -5,12 +5,15 @@ import com.example.rta.model.entity.NormalizedContEditorialSentence;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
 @Repository
 public interface NormalizedContEditorialSentenceRepository extends JpaRepository<NormalizedContEditorialSentence, Integer> {
-	@Query("SELECT n.id, n.normalizedSentence FROM NormalizedContEditorialSentence n WHERE n.wordCount >= :count")
+	@Transactional(readOnly = true)
+	@Query("SELECT new com.example.rta.dto.NormalizedSentenceDto(n.id, n.normalizedSentence)"
+			+ " FROM NormalizedContEditorialSentence n WHERE n.wordCount >= :count")
 	List<NormalizedSentenceDto> findIdAndSentenceWithWordCountGreaterThanEqual(int count);
 
 }
@@ -1,12 +1,49 @@
 package com.example.rta.model.repository;
 
+import com.example.rta.dto.IdRange;
+import com.example.rta.dto.NormalizedSentenceDto;
+import com.example.rta.dto.OriginalLibelleDto;
 import com.example.rta.model.entity.NormalizedLibelle;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.stream.Stream;
 
 @Repository
-public interface NormalizedLibelleRepository extends JpaRepository<NormalizedLibelle, Integer> {
-	Page<NormalizedLibelle> findAllByWordCountGreaterThanEqual(Integer wordCount, Pageable pageable);
+public interface NormalizedLibelleRepository extends StreamingRepository<NormalizedLibelle, Integer> {
+	// keyset (seek) page: WHERE word_count >= :wordCount AND id > :lastId AND id <= :maxId ORDER BY id (sorted by the
+	// pageable), without OFFSET or COUNT(*)
+	@Transactional(readOnly = true)
+	@Query("SELECT new com.example.rta.dto.NormalizedSentenceDto(n.id, n.normalizedLibelle) FROM NormalizedLibelle n"
+			+ " WHERE n.wordCount >= :wordCount AND n.id > :lastId AND n.id <= :maxId")
+	Slice<NormalizedSentenceDto> findByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(
+			Integer wordCount, Integer lastId, Integer maxId, Pageable pageable);
+
+	// rows left to scan after :lastId, for progress reporting
+	long countByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(Integer wordCount, Integer lastId,
+																			Integer maxId);
+
+	// cursor over WHERE word_count >= :wordCount AND id > :lastId AND id <= :maxId ORDER BY id
+	default Stream<NormalizedSentenceDto> streamByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(
+			Integer wordCount, Integer lastId, Integer maxId, int fetchSize) {
+		Specification<NormalizedLibelle> minWordCountInRange = (root, query, cb) -> cb.and(
+				cb.greaterThanOrEqualTo(root.get("wordCount"), wordCount),
+				cb.greaterThan(root.get("id"), lastId),
+				cb.lessThanOrEqualTo(root.get("id"), maxId));
+		return streamAll(minWordCountInRange, NormalizedSentenceDto.class, fetchSize, "id", "normalizedLibelle");
+	}
+
+	// lowest and highest id, to cut the table into shards
+	@Transactional(readOnly = true)
+	@Query("SELECT new com.example.rta.dto.IdRange(MIN(n.id), MAX(n.id)) FROM NormalizedLibelle n")
+	IdRange findIdRange();
+
+	// cursor over the original libelles of the whole table, ordered by id
+	default Stream<OriginalLibelleDto> streamOriginalLibelles(int fetchSize) {
+		return streamAll(null, OriginalLibelleDto.class, fetchSize, "id", "originalLibelle");
+	}
 }
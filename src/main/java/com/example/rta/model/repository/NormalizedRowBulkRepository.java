@@ -0,0 +1,197 @@
+package com.example.rta.model.repository;
+
+import com.example.rta.dto.NormalizedRow;
+import com.example.rta.dto.SourceSentenceDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Plain JDBC writes into the Normalized* tables, for volumes where going through the persistence context would cost
+ * more than the rows themselves, and the comparison of their original texts with their source tables.
+ * <p>
+ * The inserts are sent as JDBC batches. With {@code useBulkCopyForBatchInsert=true} on the SQL Server connection URL,
+ * mssql-jdbc turns each batch into a bulk copy.
+ */
+@Repository
+public class NormalizedRowBulkRepository {
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	// plain SQL doesn't get Hibernate's default schema: qualify the tables with it
+	private final String schema;
+	// collation comparing the texts char for char, whatever the collation of their columns; empty for none
+	private final String binaryCollation;
+
+	public NormalizedRowBulkRepository(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+									   @Value("${spring.jpa.properties.hibernate.default_schema:}") String schema,
+									   @Value("${rta.read.binary-collation:Latin1_General_100_BIN2}")
+									   String binaryCollation) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.schema = schema;
+		this.binaryCollation = binaryCollation;
+	}
+
+	/**
+	 * Start replacing the whole content of the table in one transaction, on a connection of its own so that it spans
+	 * the batches of a job whatever thread sends them: the former rows are deleted, and the inserted ones only show
+	 * once {@link Rebuild#commit()} ran. Closing a rebuild that was not committed rolls it back, leaving the former
+	 * content. Until then, readers wait for the table, or see the former content under read committed snapshot.
+	 */
+	public Rebuild rebuild(NormalizedTable table) {
+		Connection connection;
+		try {
+			connection = jdbcTemplate.getDataSource().getConnection();
+		} catch (SQLException e) {
+			throw new RuntimeException("Failed to start rebuilding " + table.getTableName(), e);
+		}
+
+		Rebuild rebuild = new Rebuild(table, connection);
+		try {
+			connection.setAutoCommit(false);
+			rebuild.connectionTemplate.update("DELETE FROM " + qualifiedName(table));
+			return rebuild;
+		} catch (SQLException e) {
+			rebuild.close();
+			throw new RuntimeException("Failed to start rebuilding " + table.getTableName(), e);
+		} catch (RuntimeException e) {
+			rebuild.close();
+			throw e;
+		}
+	}
+
+	public long countRows(NormalizedTable table) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + qualifiedName(table), Long.class);
+	}
+
+	// highest id written so far, null for an empty table
+	public Integer findMaxId(NormalizedTable table) {
+		return jdbcTemplate.queryForObject("SELECT MAX(id) FROM " + qualifiedName(table), Integer.class);
+	}
+
+	/**
+	 * Keyset page of the source rows after afterId up to lastId, by id, whose text is not the original stored with
+	 * their normalized row, or that have no normalized row.
+	 */
+	public Slice<SourceSentenceDto> findChanged(NormalizedTable table, int afterId, int lastId, Pageable pageable) {
+		// one row more tells whether there is a next page, like the derived Slice queries
+		List<SourceSentenceDto> rows = jdbcTemplate.query("SELECT s.id, s." + table.getSourceColumn()
+						+ changedRows(table) + " AND s.id > ? ORDER BY s.id OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY",
+				(rs, i) -> new SourceSentenceDto(rs.getInt(1), rs.getString(2)),
+				lastId, afterId, pageable.getPageSize() + 1);
+
+		boolean hasNext = rows.size() > pageable.getPageSize();
+		return new SliceImpl<>(hasNext ? rows.subList(0, pageable.getPageSize()) : rows, pageable, hasNext);
+	}
+
+	// rows findChanged returns up to lastId, for progress reporting
+	public long countChanged(NormalizedTable table, int lastId) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*)" + changedRows(table), Long.class, lastId);
+	}
+
+	// FROM and WHERE of the changed rows up to a first parameter. SQL Server compares the texts under the collation of
+	// their columns, blind to case here, and ignores trailing spaces even under a binary one: both get a sentinel
+	// appended, then are compared in the binary collation. A null text reads as an empty one.
+	private String changedRows(NormalizedTable table) {
+		String collate = binaryCollation.isEmpty() ? "" : " COLLATE " + binaryCollation;
+		return " FROM " + qualified(table.getSourceTableName()) + " s LEFT JOIN " + qualifiedName(table)
+				+ " n ON n.id = s.id WHERE s.id <= ? AND (n.id IS NULL OR CONCAT(n." + table.getOriginalColumn()
+				+ ", '.')" + collate + " <> CONCAT(s." + table.getSourceColumn() + ", '.')" + collate + ")";
+	}
+
+	/**
+	 * Insert the rows as one JDBC batch, in one transaction.
+	 */
+	public void insertAll(NormalizedTable table, List<NormalizedRow> rows) {
+		transactionTemplate.executeWithoutResult(status -> insert(jdbcTemplate, table, rows));
+	}
+
+	/**
+	 * Insert the rows as one JDBC batch, in one transaction, replacing the existing rows with the same id. Only the rows
+	 * with an id up to replacedUpToId can exist already: the others are inserted without a delete.
+	 */
+	public void replaceAll(NormalizedTable table, List<NormalizedRow> rows, int replacedUpToId) {
+		List<NormalizedRow> replaced = rows.stream().filter(row -> row.id() <= replacedUpToId).toList();
+
+		transactionTemplate.executeWithoutResult(status -> {
+			if (!replaced.isEmpty()) {
+				jdbcTemplate.batchUpdate("DELETE FROM " + qualifiedName(table) + " WHERE id = ?", replaced,
+						replaced.size(), (ps, row) -> ps.setInt(1, row.id()));
+			}
+			insert(jdbcTemplate, table, rows);
+		});
+	}
+
+	/**
+	 * A replacement of the content of a table, see {@link #rebuild(NormalizedTable)}. Used by one thread at a time.
+	 */
+	public final class Rebuild implements AutoCloseable {
+		private final NormalizedTable table;
+		private final Connection connection;
+		// runs every statement on the connection of the rebuild, which it never closes
+		private final JdbcTemplate connectionTemplate;
+		private boolean committed;
+
+		private Rebuild(NormalizedTable table, Connection connection) {
+			this.table = table;
+			this.connection = connection;
+			this.connectionTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+		}
+
+		/**
+		 * Insert the rows as one JDBC batch, within the transaction of the rebuild.
+		 */
+		public void insertAll(List<NormalizedRow> rows) {
+			insert(connectionTemplate, table, rows);
+		}
+
+		public void commit() {
+			try {
+				connection.commit();
+				committed = true;
+			} catch (SQLException e) {
+				throw new RuntimeException("Failed to commit the rebuild of " + table.getTableName(), e);
+			}
+		}
+
+		@Override
+		public void close() {
+			try (connection) {
+				if (!committed) connection.rollback();
+				connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				throw new RuntimeException("Failed to end the rebuild of " + table.getTableName(), e);
+			}
+		}
+	}
+
+	private void insert(JdbcTemplate jdbcTemplate, NormalizedTable table, List<NormalizedRow> rows) {
+		String sql = "INSERT INTO " + qualifiedName(table) + " (id, " + table.getNormalizedColumn() + ", word_count, "
+				+ table.getOriginalColumn() + ") VALUES (?, ?, ?, ?)";
+
+		jdbcTemplate.batchUpdate(sql, rows, rows.size(), (ps, row) -> {
+			ps.setInt(1, row.id());
+			ps.setString(2, row.normalizedSentence());
+			ps.setInt(3, row.wordCount());
+			ps.setString(4, row.originalSentence());
+		});
+	}
+
+	private String qualifiedName(NormalizedTable table) {
+		return qualified(table.getTableName());
+	}
+
+	private String qualified(String tableName) {
+		return schema.isEmpty() ? tableName : schema + "." + tableName;
+	}
+}
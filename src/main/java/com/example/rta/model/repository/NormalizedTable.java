@@ -0,0 +1,48 @@
+package com.example.rta.model.repository;
+
+/**
+ * Tables behind the Normalized* entities, and the source tables they are normalized from, with their column names as
+ * mapped by the Spring Boot naming strategy.
+ */
+public enum NormalizedTable {
+	LIBELLE("normalized_libelle", "normalized_libelle", "original_libelle", "mad_libelle", "libelle_original"),
+	LIBELLE_EXTRA("normalized_libelle_extra", "normalized_libelle", "original_libelle", "mad_libelle_extra",
+			"libelle_original"),
+	CONT_EDITORIAL_SENTENCE("normalized_cont_editorial_sentence", "normalized_sentence", "original_sentence",
+			"cont_editorial_sentence", "sentence");
+
+	private final String tableName;
+	private final String normalizedColumn;
+	private final String originalColumn;
+	private final String sourceTableName;
+	private final String sourceColumn;
+
+	NormalizedTable(String tableName, String normalizedColumn, String originalColumn, String sourceTableName,
+					String sourceColumn) {
+		this.tableName = tableName;
+		this.normalizedColumn = normalizedColumn;
+		this.originalColumn = originalColumn;
+		this.sourceTableName = sourceTableName;
+		this.sourceColumn = sourceColumn;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getNormalizedColumn() {
+		return normalizedColumn;
+	}
+
+	public String getOriginalColumn() {
+		return originalColumn;
+	}
+
+	public String getSourceTableName() {
+		return sourceTableName;
+	}
+
+	public String getSourceColumn() {
+		return sourceColumn;
+	}
+}
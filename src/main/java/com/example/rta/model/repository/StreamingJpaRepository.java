@@ -0,0 +1,100 @@
+package com.example.rta.model.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Base class of every repository (see {@code @EnableJpaRepositories} on the application), implementing
+ * {@link StreamingRepository} with a Hibernate {@link StatelessSession} and {@link ScrollableResults}.
+ */
+public class StreamingJpaRepository<T, ID> extends SimpleJpaRepository<T, ID> implements StreamingRepository<T, ID> {
+	private final JpaEntityInformation<T, ?> entityInformation;
+	private final EntityManager entityManager;
+
+	public StreamingJpaRepository(JpaEntityInformation<T, ?> entityInformation, EntityManager entityManager) {
+		super(entityInformation, entityManager);
+		this.entityInformation = entityInformation;
+		this.entityManager = entityManager;
+	}
+
+	@Override
+	public Stream<T> streamAll(int fetchSize) {
+		return streamAll(null, fetchSize);
+	}
+
+	@Override
+	public Stream<T> streamAll(Specification<T> spec, int fetchSize) {
+		return stream(spec, getDomainClass(), fetchSize, null);
+	}
+
+	@Override
+	public <R> Stream<R> streamAll(Specification<T> spec, Class<R> projection, int fetchSize, String... attributes) {
+		return stream(spec, projection, fetchSize, attributes);
+	}
+
+	// rows of the domain class when attributes is null, projections built from the attributes otherwise
+	private <R> Stream<R> stream(Specification<T> spec, Class<R> resultType, int fetchSize, String[] attributes) {
+		// a stateless session has no first-level cache: rows are detached as soon as they are read
+		StatelessSession session = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).openStatelessSession();
+
+		try {
+			CriteriaBuilder cb = session.getCriteriaBuilder();
+			CriteriaQuery<R> query = cb.createQuery(resultType);
+			Root<T> root = query.from(getDomainClass());
+			if (attributes != null) {
+				Selection<?>[] selections = new Selection<?>[attributes.length];
+				for (int i = 0; i < attributes.length; i++) {
+					selections[i] = root.get(attributes[i]);
+				}
+				query.select(cb.construct(resultType, selections));
+			}
+			if (spec != null) {
+				Predicate predicate = spec.toPredicate(root, query, cb);
+				if (predicate != null) query.where(predicate);
+			}
+			query.orderBy(cb.asc(root.get(entityInformation.getRequiredIdAttribute())));
+
+			ScrollableResults<R> results = session.createQuery(query)
+					.setFetchSize(fetchSize)
+					.scroll(ScrollMode.FORWARD_ONLY);
+
+			Spliterator<R> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+					Spliterator.ORDERED | Spliterator.NONNULL) {
+				@Override
+				public boolean tryAdvance(Consumer<? super R> action) {
+					if (!results.next()) return false;
+					action.accept(results.get());
+					return true;
+				}
+			};
+
+			return StreamSupport.stream(rows, false).onClose(() -> {
+				try {
+					results.close();
+				} finally {
+					session.close();
+				}
+			});
+		} catch (RuntimeException e) {
+			session.close();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.example.rta.model.repository;
+
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.NoRepositoryBean;
+
+import java.util.stream.Stream;
+
+/**
+ * Repository with a streaming read mode: rows are iterated through a forward-only JDBC cursor opened on a
+ * stateless session, so nothing is kept in a persistence context and memory stays constant whatever the table size.
+ * The returned stream holds a database connection and must be closed (try-with-resources).
+ */
+@NoRepositoryBean
+public interface StreamingRepository<T, ID> extends JpaRepository<T, ID> {
+
+	/**
+	 * Stream every row of the table ordered by id, fetching {@code fetchSize} rows per round trip.
+	 */
+	Stream<T> streamAll(int fetchSize);
+
+	/**
+	 * Stream the rows matching the specification ordered by id, fetching {@code fetchSize} rows per round trip.
+	 */
+	Stream<T> streamAll(Specification<T> spec, int fetchSize);
+
+	/**
+	 * Stream the given attributes of the rows matching the specification (every row when null) ordered by id, each
+	 * row passed to the constructor of the projection, so that only these columns are read and no entity is built.
+	 */
+	<R> Stream<R> streamAll(Specification<T> spec, Class<R> projection, int fetchSize, String... attributes);
+}
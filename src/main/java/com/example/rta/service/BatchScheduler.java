@@ -0,0 +1,68 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs the CPU-bound stages of the relationship jobs (sentence matching, bloc scanning) on a work-stealing pool of
+ * rta.match.parallelism threads, shared by the running jobs. A page is split into rta.match.batches-per-thread
+ * batches per thread of consecutive entities, each one a single task: more batches balance the uneven entities
+ * better, fewer cut the per-task overhead. Reads and writes stay on their own threads.
+ */
+@Component
+class BatchScheduler {
+	private final ForkJoinPool pool;
+	private final int batchesPerPage;
+
+	BatchScheduler(RtaProperties properties) {
+		RtaProperties.Match match = properties.getMatch();
+		int parallelism = match.getParallelism() > 0 ? match.getParallelism()
+				: Runtime.getRuntime().availableProcessors();
+		this.pool = new ForkJoinPool(parallelism);
+		this.batchesPerPage = parallelism * Math.max(1, match.getBatchesPerThread());
+	}
+
+	/**
+	 * Consecutive slices of a page, one per task, in page order.
+	 */
+	<T> List<List<T>> batches(List<T> page) {
+		int batchSize = Math.max(1, (page.size() + batchesPerPage - 1) / batchesPerPage);
+		List<List<T>> batches = new ArrayList<>((page.size() + batchSize - 1) / batchSize);
+		for (int from = 0; from < page.size(); from += batchSize) {
+			batches.add(page.subList(from, Math.min(page.size(), from + batchSize)));
+		}
+		return batches;
+	}
+
+	/**
+	 * Run the tasks on the pool and wait for all of them; the first failure is rethrown once they all ended.
+	 */
+	void runAll(List<Runnable> tasks) throws InterruptedException, ExecutionException {
+		List<ForkJoinTask<?>> submitted = new ArrayList<>(tasks.size());
+		for (Runnable task : tasks) {
+			submitted.add(pool.submit(task));
+		}
+
+		ExecutionException failure = null;
+		for (ForkJoinTask<?> task : submitted) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				if (failure == null) failure = e;
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+	@PreDestroy
+	void shutdown() {
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,171 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import com.example.rta.model.repository.NormalizedRowBulkRepository;
+import com.example.rta.model.repository.NormalizedTable;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Match structures kept warm between the runs of the relationship jobs: the libelle dictionaries, the fuzzy index and
+ * the sentence automatons. Each one carries the fingerprint (row count and max id) of the normalized tables it was
+ * built from, checked on every use: a current structure is reused as is, a stale one is rebuilt on a background thread
+ * and swapped in once complete, while the runs already holding the former one keep it. The normalize jobs start the
+ * rebuild of the structures of the table they rewrote, so that the next run finds them ready.
+ * The least recently used structures are evicted once all of them hold more than rta.dictionary.cache-memory-mb of
+ * estimated memory; 0 disables the cache. Below it, {@link DictionarySnapshots} still spares the database reads.
+ */
+@Component
+class DictionaryCache {
+	private final NormalizedRowBulkRepository normalizedRowBulkRepository;
+	private final long memoryBudget;
+	// a rebuild may need other structures, rebuilt on threads of their own
+	private final ExecutorService refresher = Executors.newThreadPerTaskExecutor(
+			Thread.ofVirtual().name("dictionary-refresh-", 0).factory());
+	private final Map<String, Entry<?>> entries = new ConcurrentHashMap<>();
+	// orders the uses and the rebuilds
+	private final AtomicLong clock = new AtomicLong();
+
+	DictionaryCache(NormalizedRowBulkRepository normalizedRowBulkRepository, RtaProperties properties) {
+		this.normalizedRowBulkRepository = normalizedRowBulkRepository;
+		this.memoryBudget = properties.getDictionary().getCacheMemoryMb() * 1024L * 1024L;
+	}
+
+	private record Fingerprint(long rowCount, Integer maxId) {
+	}
+
+	private record Loaded<V>(V value, List<Fingerprint> fingerprints, long bytes) {
+	}
+
+	private static final class Entry<V> {
+		private final List<NormalizedTable> tables;
+		private final ToLongFunction<V> sizer;
+		private volatile Supplier<V> loader;
+		private volatile Loaded<V> current;
+		private volatile long lastUsed;
+		// guarded by the entry: the latest rebuild, and the tick it was requested at
+		private CompletableFuture<Loaded<V>> rebuild;
+		private long rebuildRequested;
+
+		private Entry(List<NormalizedTable> tables, ToLongFunction<V> sizer) {
+			this.tables = tables;
+			this.sizer = sizer;
+		}
+	}
+
+	/**
+	 * The structure of the given name, built by the loader from the given tables: the cached one while the tables are
+	 * unchanged, otherwise the one a rebuild returns, waited for.
+	 *
+	 * @param sizer estimated memory of a structure
+	 */
+	@SuppressWarnings("unchecked")
+	<V> V get(String name, List<NormalizedTable> tables, Supplier<V> loader, ToLongFunction<V> sizer) {
+		if (memoryBudget <= 0) return loader.get();
+
+		long requested = clock.incrementAndGet();
+		List<Fingerprint> fingerprints = fingerprints(tables);
+		Entry<V> entry = (Entry<V>) entries.computeIfAbsent(name, key -> new Entry<>(tables, sizer));
+		entry.loader = loader;
+		entry.lastUsed = requested;
+
+		Loaded<V> current = entry.current;
+		if (current != null && current.fingerprints().equals(fingerprints)) return current.value();
+		try {
+			return rebuild(entry, requested).join().value();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) throw cause;
+			throw e;
+		}
+	}
+
+	/**
+	 * Rebuild in the background the cached structures built from a table, once a job rewrote it.
+	 *
+	 * @return completed once the rebuilds ended, failed ones included: the caller need not wait for it
+	 */
+	CompletableFuture<Void> refresh(NormalizedTable table) {
+		List<CompletableFuture<?>> rebuilds = new ArrayList<>();
+		for (Entry<?> entry : entries.values()) {
+			if (entry.current != null && entry.tables.contains(table)) {
+				rebuilds.add(rebuild(entry, clock.incrementAndGet()).exceptionally(e -> {
+					e.printStackTrace();
+					return null;
+				}));
+			}
+		}
+		return CompletableFuture.allOf(rebuilds.toArray(CompletableFuture[]::new));
+	}
+
+	// The rebuild in progress when it was requested after the given tick, so that it reads the tables as they were
+	// then or later; otherwise a new one, started once the former one ended
+	private <V> CompletableFuture<Loaded<V>> rebuild(Entry<V> entry, long requested) {
+		synchronized (entry) {
+			if (entry.rebuild != null && !entry.rebuild.isDone() && entry.rebuildRequested >= requested) {
+				return entry.rebuild;
+			}
+
+			CompletableFuture<?> previous = entry.rebuild == null ? CompletableFuture.completedFuture(null)
+					: entry.rebuild.exceptionally(e -> null);
+			entry.rebuild = previous.thenApplyAsync(ignored -> build(entry), refresher);
+			entry.rebuildRequested = clock.incrementAndGet();
+			return entry.rebuild;
+		}
+	}
+
+	// The fingerprints are read first: a table changed during the load makes the structure stale right away
+	private <V> Loaded<V> build(Entry<V> entry) {
+		List<Fingerprint> fingerprints = fingerprints(entry.tables);
+		V value = entry.loader.get();
+		Loaded<V> loaded = new Loaded<>(value, fingerprints, entry.sizer.applyAsLong(value));
+		entry.current = loaded;
+		evict();
+		return loaded;
+	}
+
+	// Least recently used first, until the budget is met; the evicted structures stay with the runs using them
+	private synchronized void evict() {
+		long total = 0;
+		List<Map.Entry<String, Entry<?>>> loaded = new ArrayList<>();
+		for (Map.Entry<String, Entry<?>> entry : entries.entrySet()) {
+			Loaded<?> current = entry.getValue().current;
+			if (current != null) {
+				total += current.bytes();
+				loaded.add(entry);
+			}
+		}
+
+		loaded.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+		for (int i = 0; i < loaded.size() && total > memoryBudget; i++) {
+			total -= loaded.get(i).getValue().current.bytes();
+			entries.remove(loaded.get(i).getKey(), loaded.get(i).getValue());
+		}
+	}
+
+	private List<Fingerprint> fingerprints(List<NormalizedTable> tables) {
+		List<Fingerprint> fingerprints = new ArrayList<>(tables.size());
+		for (NormalizedTable table : tables) {
+			fingerprints.add(new Fingerprint(normalizedRowBulkRepository.countRows(table),
+					normalizedRowBulkRepository.findMaxId(table)));
+		}
+		return fingerprints;
+	}
+
+	@PreDestroy
+	void shutdown() {
+		refresher.shutdown();
+	}
+}
@@ -0,0 +1,250 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import com.example.rta.dto.NormalizedSentenceDto;
+import com.example.rta.model.repository.NormalizedRowBulkRepository;
+import com.example.rta.model.repository.NormalizedTable;
+import org.springframework.stereotype.Component;
+import util.PhraseDictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Snapshot files of the match dictionaries, so that a run does not reload and rebuild them from the normalized tables
+ * while these did not change. A snapshot starts with a versioned header holding the row count and the max id of its
+ * table when it was written: once either differs, the snapshot is stale and the next run rebuilds it. The normalize
+ * jobs also drop the snapshots of the table they rewrite, which catches the updates that keep both unchanged.
+ * Dictionaries are mapped with {@link FileChannel#map} and read in place; the sentence list is decoded from the
+ * mapping, as the automaton needs the strings.
+ */
+@Component
+class DictionarySnapshots {
+	// "RTDS"
+	private static final int MAGIC = 0x52544453;
+	private static final int VERSION = 1;
+	// magic, version, row count, max id, word count
+	private static final int HEADER_BYTES = 24;
+	private static final int NO_MAX_ID = Integer.MIN_VALUE;
+	private static final int NULL_SENTENCE = -1;
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+	private static final String EXTENSION = ".snapshot";
+
+	private final NormalizedRowBulkRepository normalizedRowBulkRepository;
+	private final RtaProperties properties;
+
+	DictionarySnapshots(NormalizedRowBulkRepository normalizedRowBulkRepository, RtaProperties properties) {
+		this.normalizedRowBulkRepository = normalizedRowBulkRepository;
+		this.properties = properties;
+	}
+
+	@FunctionalInterface
+	private interface Payload {
+		void writeTo(FileChannel channel) throws IOException;
+	}
+
+	private record Fingerprint(long rowCount, int maxId, int wordCount) {
+	}
+
+	/**
+	 * Dictionary built from a table: mapped from its snapshot when it is current, otherwise built by the loader and
+	 * snapshotted for the next runs.
+	 */
+	PhraseDictionary phraseDictionary(NormalizedTable table, Supplier<PhraseDictionary> loader) {
+		Path directory = directory();
+		if (directory == null) return loader.get();
+
+		Fingerprint fingerprint = fingerprint(table, 0);
+		Path file = directory.resolve(table.getTableName() + EXTENSION);
+		try (FileChannel channel = openIfCurrent(file, fingerprint)) {
+			if (channel != null) return PhraseDictionary.map(channel, HEADER_BYTES);
+		} catch (IOException | RuntimeException e) {
+			// unreadable snapshot: rebuilt below
+			e.printStackTrace();
+		}
+
+		PhraseDictionary dictionary = loader.get();
+		write(directory, file, fingerprint, dictionary::writeTo);
+		return dictionary;
+	}
+
+	/**
+	 * Content editorial sentences of at least wordCount words, in the order of the loader: decoded from their snapshot
+	 * when it is current, otherwise loaded and snapshotted for the next runs.
+	 */
+	List<NormalizedSentenceDto> sentences(int wordCount, Supplier<List<NormalizedSentenceDto>> loader) {
+		Path directory = directory();
+		if (directory == null) return loader.get();
+
+		NormalizedTable table = NormalizedTable.CONT_EDITORIAL_SENTENCE;
+		Fingerprint fingerprint = fingerprint(table, wordCount);
+		Path file = directory.resolve(table.getTableName() + "-" + wordCount + EXTENSION);
+		try (FileChannel channel = openIfCurrent(file, fingerprint)) {
+			if (channel != null) return readSentences(channel);
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+		}
+
+		List<NormalizedSentenceDto> sentences = loader.get();
+		write(directory, file, fingerprint, channel -> writeSentences(channel, sentences));
+		return sentences;
+	}
+
+	/**
+	 * Drop the snapshots built from a table, once a job rewrote it.
+	 */
+	void invalidate(NormalizedTable table) {
+		Path directory = directory();
+		if (directory == null || !Files.isDirectory(directory)) return;
+
+		String name = table.getTableName();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				"{" + name + EXTENSION + "," + name + "-*" + EXTENSION + "}")) {
+			for (Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		} catch (IOException e) {
+			// a snapshot still mapped cannot be deleted on Windows: its fingerprint is checked again on the next run
+			e.printStackTrace();
+		}
+	}
+
+	// null when snapshots are disabled (blank rta.dictionary.snapshot-directory)
+	private Path directory() {
+		String directory = properties.getDictionary().getSnapshotDirectory();
+		return directory == null || directory.isBlank() ? null : Path.of(directory);
+	}
+
+	private Fingerprint fingerprint(NormalizedTable table, int wordCount) {
+		Integer maxId = normalizedRowBulkRepository.findMaxId(table);
+		return new Fingerprint(normalizedRowBulkRepository.countRows(table), maxId == null ? NO_MAX_ID : maxId,
+				wordCount);
+	}
+
+	// the open snapshot when it exists and matches the fingerprint, null otherwise
+	private FileChannel openIfCurrent(Path file, Fingerprint fingerprint) throws IOException {
+		if (!Files.isRegularFile(file)) return null;
+
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) break;
+			}
+			if (!header.hasRemaining() && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+					&& header.getLong(8) == fingerprint.rowCount() && header.getInt(16) == fingerprint.maxId()
+					&& header.getInt(20) == fingerprint.wordCount()) {
+				return channel;
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		channel.close();
+		return null;
+	}
+
+	// Written to a temporary file moved over the former snapshot, so that a reader never sees a partial one. Failing
+	// to write a snapshot doesn't fail the job: the next run rebuilds it
+	private void write(Path directory, Path file, Fingerprint fingerprint, Payload payload) {
+		Path temporary = null;
+		try {
+			Files.createDirectories(directory);
+			temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+						.putInt(MAGIC).putInt(VERSION).putLong(fingerprint.rowCount()).putInt(fingerprint.maxId())
+						.putInt(fingerprint.wordCount())
+						.flip();
+				while (header.hasRemaining()) {
+					channel.write(header);
+				}
+				payload.writeTo(channel);
+				channel.force(true);
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (temporary != null) {
+				try {
+					Files.deleteIfExists(temporary);
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	// count, then the ids, the lengths (NULL_SENTENCE for a null sentence) and the chars, as little-endian UTF-16
+	private static void writeSentences(FileChannel channel, List<NormalizedSentenceDto> sentences) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		putInt(channel, buffer, sentences.size());
+		for (NormalizedSentenceDto sentence : sentences) {
+			putInt(channel, buffer, sentence.id());
+		}
+		for (NormalizedSentenceDto sentence : sentences) {
+			String text = sentence.normalizedSentence();
+			putInt(channel, buffer, text == null ? NULL_SENTENCE : text.length());
+		}
+		for (NormalizedSentenceDto sentence : sentences) {
+			String text = sentence.normalizedSentence();
+			if (text == null) continue;
+			for (int i = 0; i < text.length(); i++) {
+				if (buffer.remaining() < Character.BYTES) flush(channel, buffer);
+				buffer.putChar(text.charAt(i));
+			}
+		}
+		flush(channel, buffer);
+	}
+
+	private static void putInt(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+		if (buffer.remaining() < Integer.BYTES) flush(channel, buffer);
+		buffer.putInt(value);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static List<NormalizedSentenceDto> readSentences(FileChannel channel) throws IOException {
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, channel.size() - HEADER_BYTES);
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		int count = mapped.getInt(0);
+		IntBuffer ids = mapped.slice(Integer.BYTES, count * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		IntBuffer lengths = mapped.slice((1 + count) * Integer.BYTES, count * Integer.BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		int charsAt = (1 + 2 * count) * Integer.BYTES;
+		CharBuffer chars = mapped.slice(charsAt, mapped.capacity() - charsAt).order(ByteOrder.LITTLE_ENDIAN)
+				.asCharBuffer();
+
+		List<NormalizedSentenceDto> sentences = new ArrayList<>(count);
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			int length = lengths.get(i);
+			String text = null;
+			if (length != NULL_SENTENCE) {
+				text = chars.subSequence(position, position + length).toString();
+				position += length;
+			}
+			sentences.add(new NormalizedSentenceDto(ids.get(i), text));
+		}
+		return sentences;
+	}
+}
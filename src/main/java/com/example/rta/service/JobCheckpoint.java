@@ -0,0 +1,77 @@
+package com.example.rta.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Progress of a long job, kept in a small properties file next to its outputs: the job parameters, the last id of the
+ * last completed page and the size of each output file at that point. The file is replaced atomically on every save,
+ * so a crash leaves either the former or the new checkpoint, never a torn one.
+ */
+final class JobCheckpoint {
+	private final Path file;
+	private final Properties values = new Properties();
+
+	private JobCheckpoint(Path file) {
+		this.file = file;
+	}
+
+	// the saved checkpoint if there is one, an empty one otherwise
+	static JobCheckpoint load(Path file) throws IOException {
+		JobCheckpoint checkpoint = new JobCheckpoint(file);
+		if (Files.exists(file)) {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				checkpoint.values.load(reader);
+			}
+		}
+		return checkpoint;
+	}
+
+	boolean isEmpty() {
+		return values.isEmpty();
+	}
+
+	String get(String key) {
+		return values.getProperty(key);
+	}
+
+	int getInt(String key) {
+		return Integer.parseInt(values.getProperty(key));
+	}
+
+	long getLong(String key) {
+		return Long.parseLong(values.getProperty(key));
+	}
+
+	JobCheckpoint set(String key, Object value) {
+		values.setProperty(key, String.valueOf(value));
+		return this;
+	}
+
+	void save() throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			OutputStream out = Channels.newOutputStream(channel);
+			values.store(out, null);
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// once the job completed: the next run starts from scratch
+	void delete() throws IOException {
+		values.clear();
+		Files.deleteIfExists(file);
+	}
+}
@@ -0,0 +1,48 @@
+package com.example.rta.service;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress and cancellation flag of a running job, shared between the job and the status endpoint. Jobs report the
+ * rows they completed and call {@link #checkCancelled()} in their loops: cancelling is cooperative, so that the
+ * executors drain, the writers close and the checkpoints stay consistent.
+ */
+public class JobProgress {
+	private final LongAdder rowsProcessed = new LongAdder();
+	private volatile long totalRows = -1;
+	private volatile boolean cancelled;
+
+	// rows the job expects to process, when it can tell
+	public void setTotalRows(long totalRows) {
+		this.totalRows = totalRows;
+	}
+
+	public void addRowsProcessed(long rows) {
+		rowsProcessed.add(rows);
+	}
+
+	/**
+	 * @throws CancellationException once the job was cancelled
+	 */
+	public void checkCancelled() {
+		if (cancelled) throw new CancellationException("Job cancelled");
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	void cancel() {
+		cancelled = true;
+	}
+
+	long getRowsProcessed() {
+		return rowsProcessed.sum();
+	}
+
+	// -1 while unknown
+	long getTotalRows() {
+		return totalRows;
+	}
+}
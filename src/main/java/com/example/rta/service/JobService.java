@@ -0,0 +1,185 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import com.example.rta.dto.JobStatus;
+import com.example.rta.dto.JobStatus.JobState;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+/**
+ * Runs the long jobs off the HTTP threads. A submitted job gets an id right away and waits in the queue until one of
+ * the rta.jobs.max-concurrent job threads is free, so that heavy runs don't compete for the cores and the database
+ * connections. Its status, progress and outcome stay available until rta.jobs.retained-finished newer jobs finished.
+ * Only one job of a type (the job name and its shard) is queued or running at a time, as two of them would write the
+ * same outputs and checkpoints.
+ */
+@Service
+public class JobService {
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+	// the queued or running job of each type
+	private final Map<String, Job> activeJobs = new ConcurrentHashMap<>();
+	private final ExecutorService executor;
+	private final int retainedFinished;
+
+	public JobService(RtaProperties properties) {
+		this.executor = Executors.newFixedThreadPool(properties.getJobs().getMaxConcurrent(),
+				Thread.ofPlatform().name("job-", 0).factory());
+		this.retainedFinished = properties.getJobs().getRetainedFinished();
+	}
+
+	/**
+	 * Queue a job.
+	 *
+	 * @throws IllegalStateException when a job of the same type is queued or running
+	 */
+	public JobStatus submit(String type, Consumer<JobProgress> work) {
+		Job job = new Job(UUID.randomUUID().toString(), type);
+		Job active = activeJobs.putIfAbsent(type, job);
+		if (active != null) {
+			throw new IllegalStateException("A " + type + " job is already " + active.state.name().toLowerCase()
+					+ ": " + active.id);
+		}
+
+		FutureTask<Void> task = new FutureTask<>(() -> run(job, work), null);
+		job.future = task;
+		jobs.put(job.id, job);
+		executor.execute(task);
+		evictFinished();
+		return job.status();
+	}
+
+	public Optional<JobStatus> status(String id) {
+		return Optional.ofNullable(jobs.get(id)).map(Job::status);
+	}
+
+	public List<JobStatus> statuses() {
+		return jobs.values().stream()
+				.sorted(Comparator.comparing((Job job) -> job.submittedAt))
+				.map(Job::status)
+				.toList();
+	}
+
+	/**
+	 * Cancel a job: a queued job never starts, a running one stops at its next page or entity.
+	 */
+	public Optional<JobStatus> cancel(String id) {
+		Job job = jobs.get(id);
+		if (job == null) return Optional.empty();
+
+		job.cancel();
+		// a cancelled queued job never runs
+		if (job.finishedAt != null) activeJobs.remove(job.type, job);
+		return Optional.of(job.status());
+	}
+
+	@PreDestroy
+	void shutdown() {
+		jobs.values().forEach(Job::cancel);
+		executor.shutdown();
+	}
+
+	private void run(Job job, Consumer<JobProgress> work) {
+		try {
+			if (!job.start()) return;
+
+			work.accept(job.progress);
+			job.finish(JobState.SUCCEEDED, null);
+		} catch (RuntimeException | Error e) {
+			// a cancelled job stops by throwing, possibly wrapped by the job itself
+			if (job.progress.isCancelled()) {
+				job.finish(JobState.CANCELLED, null);
+			} else {
+				e.printStackTrace();
+				job.finish(JobState.FAILED, e.toString());
+			}
+			if (e instanceof Error error) throw error;
+		} finally {
+			activeJobs.remove(job.type, job);
+		}
+	}
+
+	// Keeps the running and queued jobs, and the most recent finished ones
+	private void evictFinished() {
+		List<Job> finished = jobs.values().stream()
+				.filter(job -> job.finishedAt != null)
+				.sorted(Comparator.comparing((Job job) -> job.finishedAt).reversed())
+				.toList();
+		for (Job job : finished.subList(Math.min(retainedFinished, finished.size()), finished.size())) {
+			jobs.remove(job.id);
+		}
+	}
+
+	private static final class Job {
+		private final String id;
+		private final String type;
+		private final Instant submittedAt = Instant.now();
+		private final JobProgress progress = new JobProgress();
+		private volatile Future<?> future;
+		private volatile JobState state = JobState.QUEUED;
+		private volatile Instant startedAt;
+		private volatile Instant finishedAt;
+		private volatile String error;
+
+		private Job(String id, String type) {
+			this.id = id;
+			this.type = type;
+		}
+
+		// false when the job was cancelled while queued
+		private synchronized boolean start() {
+			if (state != JobState.QUEUED) return false;
+
+			startedAt = Instant.now();
+			state = JobState.RUNNING;
+			return true;
+		}
+
+		private synchronized void cancel() {
+			progress.cancel();
+			if (state == JobState.QUEUED) {
+				future.cancel(false);
+				finish(JobState.CANCELLED, null);
+			}
+		}
+
+		private synchronized void finish(JobState finalState, String failure) {
+			error = failure;
+			finishedAt = Instant.now();
+			state = finalState;
+		}
+
+		private JobStatus status() {
+			long rows = progress.getRowsProcessed();
+			long total = progress.getTotalRows();
+			Instant start = startedAt;
+			Instant end = finishedAt != null ? finishedAt : Instant.now();
+
+			Double rowsPerSecond = null;
+			Long etaSeconds = null;
+			if (start != null) {
+				long elapsedMillis = Math.max(Duration.between(start, end).toMillis(), 1);
+				rowsPerSecond = rows * 1000.0 / elapsedMillis;
+				if (total >= 0 && rows > 0 && finishedAt == null) {
+					etaSeconds = (long) (Math.max(total - rows, 0) / rowsPerSecond);
+				}
+			}
+
+			return new JobStatus(id, type, state, rows, total >= 0 ? total : null, rowsPerSecond, etaSeconds,
+					submittedAt, start, finishedAt, error);
+		}
+	}
+}
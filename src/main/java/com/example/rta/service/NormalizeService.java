@@ -1,143 +1,273 @@
 package com.example.rta.service;
 
-import com.example.rta.model.entity.ContEditorialSentence;
-import com.example.rta.model.entity.LibelleExtra;
+import com.example.rta.config.RtaProperties;
+import com.example.rta.config.WriteSink;
+import com.example.rta.dto.NormalizedRow;
+import com.example.rta.dto.SourceSentenceDto;
 import com.example.rta.model.repository.ContentEditorialSentenceRepository;
-import com.example.rta.model.entity.Libelle;
 import com.example.rta.model.repository.LibelleExtraRepository;
 import com.example.rta.model.repository.LibelleRepository;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
+import com.example.rta.model.repository.NormalizedRowBulkRepository;
+import com.example.rta.model.repository.NormalizedTable;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import util.RecordFormat;
+import util.SentenceNormalizer;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.text.Normalizer;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
 
+import static util.Constants.KEYSET_START_ID;
 import static util.Constants.PAGE_SIZE;
-import static util.Constants.SEPARATOR;
 
 @Service
 public class NormalizeService {
-	private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
 	private static final String COLUMN_HEADER = "id;normalized_libelle;word_count";
 
-	private static final String LIBELLE_OUT = "normalized_libelle.csv";
-	private static final String LIBELLE_EXTRA_OUT = "normalized_libelle_extra.csv";
-	private static final String CONT_EDITORIAL_OUT = "normalized_cont_editorial_sentence.csv";
+	// output names, completed with the extension of rta.write.format
+	private static final String LIBELLE_OUT = "normalized_libelle";
+	private static final String LIBELLE_EXTRA_OUT = "normalized_libelle_extra";
+	private static final String CONT_EDITORIAL_OUT = "normalized_cont_editorial_sentence";
 
-	private final Object lock = new Object();
+	// rows normalized by one worker task
+	private static final int CHUNK_SIZE = 2000;
+	// normalized chunks waiting for the writer, per worker: bounds the memory held between the stages
+	private static final int CHUNKS_IN_FLIGHT_PER_WORKER = 4;
+	// marks the end of the scan in the writer queue
+	private static final Future<List<NormalizedRow>> END_OF_SCAN = CompletableFuture.completedFuture(null);
 
 	private final ContentEditorialSentenceRepository contentEditorialSentenceRepository;
 	private final LibelleRepository libelleRepository;
 	private final LibelleExtraRepository libelleExtraRepository;
+	private final NormalizedRowBulkRepository normalizedRowBulkRepository;
+	private final RtaProperties properties;
+	private final PipelineMetrics metrics;
+	private final DictionarySnapshots snapshots;
+	private final DictionaryCache dictionaryCache;
 
 	public NormalizeService(ContentEditorialSentenceRepository contentEditorialSentenceRepository,
-							LibelleRepository libelleRepository, LibelleExtraRepository libelleExtraRepository) {
+							LibelleRepository libelleRepository, LibelleExtraRepository libelleExtraRepository,
+							NormalizedRowBulkRepository normalizedRowBulkRepository, RtaProperties properties,
+							PipelineMetrics metrics, DictionarySnapshots snapshots, DictionaryCache dictionaryCache) {
 		this.contentEditorialSentenceRepository = contentEditorialSentenceRepository;
 		this.libelleRepository = libelleRepository;
 		this.libelleExtraRepository = libelleExtraRepository;
+		this.normalizedRowBulkRepository = normalizedRowBulkRepository;
+		this.properties = properties;
+		this.metrics = metrics;
+		this.snapshots = snapshots;
+		this.dictionaryCache = dictionaryCache;
 	}
 
 
 	/**
-	 * Normalize entries from the libelle table and write the normalized sentences to a CSV file.
+	 * Normalize entries from the libelle table and write the normalized sentences to a CSV file or to the
+	 * normalized_libelle table, depending on rta.write.sink.
 	 * csv file format: id;normalized_libelle;word_count
+	 *
+	 * @param incremental only normalize the rows added or changed since the former run, see {@link #readWatermark}
 	 */
-	public void normalizeLibelle() {
-		normalizeEntities(libelleRepository::findAll, Libelle::getLibelleOriginal, Libelle::getId, LIBELLE_OUT);
+	public void normalizeLibelle(boolean incremental, JobProgress progress) {
+		normalizeTable(incremental, progress, libelleRepository::findByIdGreaterThan,
+				libelleRepository::streamByIdGreaterThan, libelleRepository::countByIdGreaterThan, LIBELLE_OUT,
+				NormalizedTable.LIBELLE);
 	}
 
 
 	/**
-	 * Normalize entries from the libelle extra table and write the normalized sentences to a CSV file.
+	 * Normalize entries from the libelle extra table and write the normalized sentences to a CSV file or to the
+	 * normalized_libelle_extra table, depending on rta.write.sink.
 	 * csv file format: id;normalized_libelle;word_count
+	 *
+	 * @param incremental only normalize the rows added or changed since the former run, see {@link #readWatermark}
 	 */
-	public void normalizeLibelleExtra() {
-		normalizeEntities(libelleExtraRepository::findAll, LibelleExtra::getLibelleOriginal, LibelleExtra::getId, LIBELLE_EXTRA_OUT);
+	public void normalizeLibelleExtra(boolean incremental, JobProgress progress) {
+		normalizeTable(incremental, progress, libelleExtraRepository::findByIdGreaterThan,
+				libelleExtraRepository::streamByIdGreaterThan, libelleExtraRepository::countByIdGreaterThan,
+				LIBELLE_EXTRA_OUT, NormalizedTable.LIBELLE_EXTRA);
 	}
 
 	/**
-	 * Normalize entries from the content editorial table and write the normalized sentences to a CSV file.
+	 * Normalize entries from the content editorial table and write the normalized sentences to a CSV file or to the
+	 * normalized_cont_editorial_sentence table, depending on rta.write.sink.
 	 * csv file format: id;normalized_sentence;word_count
+	 *
+	 * @param incremental only normalize the rows added or changed since the former run, see {@link #readWatermark}
 	 */
-	public void normalizeContentEditorial() {
-		normalizeEntities(contentEditorialSentenceRepository::findAll, ContEditorialSentence::getSentence,
-				ContEditorialSentence::getId, CONT_EDITORIAL_OUT);
+	public void normalizeContentEditorial(boolean incremental, JobProgress progress) {
+		normalizeTable(incremental, progress, contentEditorialSentenceRepository::findByIdGreaterThan,
+				contentEditorialSentenceRepository::streamByIdGreaterThan,
+				contentEditorialSentenceRepository::countByIdGreaterThan, CONT_EDITORIAL_OUT,
+				NormalizedTable.CONT_EDITORIAL_SENTENCE);
 	}
 
-	// Generic pager + writer for any entity type that exposes a sentence/string and id
-	private <T> void normalizeEntities(Function<PageRequest, Page<T>> pageFetcher, Function<T, String> sentenceGetter,
-									   Function<T, Integer> idGetter, String outPath) {
-		Path out = Paths.get(outPath);
+	// Whole table, or the changed rows up to the watermark, paged by keyset, then the rows after it
+	private void normalizeTable(boolean incremental, JobProgress progress,
+								BiFunction<Integer, Pageable, Slice<SourceSentenceDto>> keysetFetcher,
+								BiFunction<Integer, Integer, Stream<SourceSentenceDto>> streamer,
+								ToLongFunction<Integer> counter, String outPath, NormalizedTable table) {
+		Integer watermark = readWatermark(incremental, table);
+		int afterId = watermark == null ? KEYSET_START_ID : watermark;
+		progress.setTotalRows((watermark == null ? 0 : normalizedRowBulkRepository.countChanged(table, watermark))
+				+ counter.applyAsLong(afterId));
 
-		try (BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8,
-				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-			writeCsvHeader(writer);
+		PageSource<SourceSentenceDto> pages = PageSource.openAfter(properties.getRead(), afterId, keysetFetcher,
+				streamer, SourceSentenceDto::id, PAGE_SIZE);
+		if (watermark != null) {
+			pages = PageSource.concat(PageSource.keyset((lastId, pageable) -> normalizedRowBulkRepository
+					.findChanged(table, lastId, watermark, pageable), SourceSentenceDto::id, PAGE_SIZE,
+					KEYSET_START_ID), pages);
+		}
 
-			int page = 0;
-			Page<T> pageResp;
+		try {
+			normalizeEntities(pages, SourceSentenceDto::sentence, SourceSentenceDto::id, outPath, table, watermark,
+					progress);
+		} finally {
+			// even a failed run may have rewritten rows the dictionaries were built from
+			if (properties.getWrite().getSink() == WriteSink.DATABASE) {
+				snapshots.invalidate(table);
+				dictionaryCache.refresh(table);
+			}
+		}
+	}
 
-			do {
-				PageRequest pageable = PageRequest.of(page, PAGE_SIZE, Sort.by("id"));
-				pageResp = pageFetcher.apply(pageable);
+	/**
+	 * High-water mark of an incremental run: the highest id of the normalized table. Rows are written in id order and
+	 * committed by batches, so it is the last row the former runs committed, even when one of them failed. The rows
+	 * after it are new; the rows up to it are normalized again when their text differs, char for char, from the
+	 * original stored with their normalized row, or when they have none.
+	 *
+	 * @return null when the whole table has to be normalized: not incremental, or nothing normalized yet
+	 */
+	private Integer readWatermark(boolean incremental, NormalizedTable table) {
+		if (!incremental) return null;
+		if (properties.getWrite().getSink() != WriteSink.DATABASE) {
+			throw new IllegalStateException("Incremental normalization needs rta.write.sink: database");
+		}
+		return normalizedRowBulkRepository.findMaxId(table);
+	}
 
-				for (T e : pageResp.getContent()) {
-					writeCsvLine(writer, sentenceGetter.apply(e), idGetter.apply(e));
-				}
+	// Generic pipeline for any entity type that exposes a sentence/string and id:
+	// the calling thread fetches pages and cuts them into chunks, a pool sized to the cores normalizes the chunks and a
+	// single writer thread hands them to the sink in submission order, so the output stays ordered by id. The writer
+	// queue is bounded: when the writer falls behind, fetching blocks
+	private <T> void normalizeEntities(PageSource<T> pageSource, Function<T, String> sentenceGetter,
+									   Function<T, Integer> idGetter, String outPath, NormalizedTable table,
+									   Integer watermark, JobProgress progress) {
+		String target = properties.getWrite().getSink() == WriteSink.CSV
+				? properties.getWrite().getFormat().forText().fileName(outPath) : table.getTableName();
+		int workers = Runtime.getRuntime().availableProcessors();
+		Timer pageFetch = metrics.pageFetch(PipelineMetrics.NORMALIZE);
+		BlockingQueue<Future<List<NormalizedRow>>> normalizedChunks =
+				new ArrayBlockingQueue<>(workers * CHUNKS_IN_FLIGHT_PER_WORKER);
+		AtomicBoolean writerFailed = new AtomicBoolean();
 
-				page++;
-			} while (pageResp.hasNext());
+		try (pageSource;
+			 NormalizedSink sink = openSink(outPath, table, watermark);
+			 ExecutorService normalizers = Executors.newFixedThreadPool(workers,
+					 Thread.ofPlatform().name("normalize-", 0).factory());
+			 ExecutorService writerStage = Executors.newSingleThreadExecutor(
+					 Thread.ofPlatform().name("normalize-writer").factory())) {
+			Future<Void> written = writerStage.submit(() -> writeChunks(sink, normalizedChunks, writerFailed, progress));
 
-			writer.flush();
+			try {
+				List<T> page;
+				// the writer raises writerFailed as soon as it failed, while it drains the queue: stop fetching, its
+				// error is rethrown below
+				while (!writerFailed.get() && !(page = pageFetch.record(pageSource::nextPage)).isEmpty()) {
+					for (int from = 0; from < page.size(); from += CHUNK_SIZE) {
+						progress.checkCancelled();
+						List<T> chunk = page.subList(from, Math.min(from + CHUNK_SIZE, page.size()));
+						normalizedChunks.put(normalizers.submit(() -> normalizeChunk(chunk, sentenceGetter, idGetter)));
+					}
+				}
+			} finally {
+				normalizedChunks.put(END_OF_SCAN);
+			}
+
+			written.get();
+			sink.complete();
 		} catch (IOException e) {
-			throw new RuntimeException("Failed to write normalized file: " + outPath, e);
+			throw new RuntimeException("Failed to write normalized rows: " + target, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while normalizing: " + target, e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to normalize: " + target, e.getCause());
 		}
 	}
 
-	private void writeCsvHeader(BufferedWriter writer) throws IOException {
-		writer.write(COLUMN_HEADER);
-		writer.newLine();
+	// without a watermark the job rebuilds the whole output; with one, it upserts into the normalized table
+	private NormalizedSink openSink(String outPath, NormalizedTable table, Integer watermark) throws IOException {
+		RtaProperties.Write write = properties.getWrite();
+		return switch (write.getSink()) {
+			case CSV -> {
+				RecordFormat format = write.getFormat().forText();
+				yield NormalizedSink.csv(Paths.get(format.fileName(outPath)), COLUMN_HEADER,
+						format == RecordFormat.CSV_GZIP);
+			}
+			case DATABASE -> watermark == null
+					? NormalizedSink.database(normalizedRowBulkRepository, table, write.getBatchSize())
+					: NormalizedSink.database(normalizedRowBulkRepository, table, write.getBatchSize(), watermark);
+		};
 	}
 
-	private void writeCsvLine(BufferedWriter writer, String originalSentence, Integer id) throws IOException {
-		String normalized = normalizeSentence(originalSentence);
+	// rows of one chunk, normalized on a worker thread
+	private <T> List<NormalizedRow> normalizeChunk(List<T> chunk, Function<T, String> sentenceGetter,
+												   Function<T, Integer> idGetter) {
+		SentenceNormalizer normalizer = new SentenceNormalizer();
+		List<NormalizedRow> rows = new ArrayList<>(chunk.size());
 
-		// count words: number of whitespace-separated tokens (0 if blank)
-		int wordCount = normalized.split("\\s+").length;
-		String line = id + SEPARATOR + normalized + SEPARATOR + wordCount;
-
-		synchronized (lock) {
-			writer.write(line);
-			writer.newLine();
+		for (T e : chunk) {
+			String sentence = sentenceGetter.apply(e);
+			// normalized sentence and word count (number of whitespace-separated tokens) come out of a single pass
+			normalizer.normalize(sentence);
+			rows.add(new NormalizedRow(idGetter.apply(e), normalizer.result(), normalizer.wordCount(), sentence));
 		}
-	}
 
-	private String normalizeSentence(String libelle) {
-		// Normalize Unicode and remove diacritical marks (accents)
-		String result = Normalizer.normalize(libelle, Normalizer.Form.NFD);
-		result = DIACRITICS.matcher(result).replaceAll("");
-
-		// Replace specified punctuation by spaces: ; : ? ! , « » " \r \n
-		result = result.replaceAll("[\\r\\n;:?!«»\"]", " ");
-
-		// Replace by spaces periods or commas that are NOT between two digits (preserve 1,234 and 3.14)
-		result = result.replaceAll("(?<!\\d)[.,]|[.,](?!\\d)", " ");
+		return rows;
+	}
 
-		// Collapse multiple whitespaces into a single space and trim
-		result = result.replaceAll("\\s+", " ").trim();
+	// Writer stage: takes the chunks in submission order until END_OF_SCAN. After a failure it raises failed, so that
+	// the fetching thread stops, and keeps draining the queue so that it never blocks on a full queue, then rethrows
+	private Void writeChunks(NormalizedSink sink, BlockingQueue<Future<List<NormalizedRow>>> normalizedChunks,
+							 AtomicBoolean failed, JobProgress progress) throws Exception {
+		Exception failure = null;
 
-		// (), [] and {} are not replaced because they will be used to detect potential placeholders
-		// ' is another special character in French, but it won't be replaced for a blank space because it would produce extra words
+		for (Future<List<NormalizedRow>> chunk = normalizedChunks.take(); chunk != END_OF_SCAN;
+			 chunk = normalizedChunks.take()) {
+			if (failure != null) {
+				chunk.cancel(false);
+				continue;
+			}
+			try {
+				List<NormalizedRow> rows = chunk.get();
+				sink.write(rows);
+				progress.addRowsProcessed(rows.size());
+			} catch (IOException | ExecutionException | RuntimeException e) {
+				failure = e;
+				failed.set(true);
+			}
+		}
 
-		return result.toLowerCase();
+		if (failure instanceof ExecutionException e && e.getCause() instanceof Exception cause) throw cause;
+		if (failure != null) throw failure;
+		return null;
 	}
 }
@@ -0,0 +1,157 @@
+package com.example.rta.service;
+
+import com.example.rta.dto.NormalizedRow;
+import com.example.rta.model.repository.NormalizedRowBulkRepository;
+import com.example.rta.model.repository.NormalizedTable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static util.Constants.SEPARATOR;
+
+/**
+ * Destination of a normalize job. Rows come in id order from a single writer thread; the sink is completed once every
+ * row was written, then closed. Closing the sink writes what it still holds, unless it only keeps complete outputs.
+ */
+interface NormalizedSink extends AutoCloseable {
+	int GZIP_BUFFER_SIZE = 1 << 16;
+
+	void write(List<NormalizedRow> rows) throws IOException;
+
+	// every row was written: a sink that only keeps complete outputs publishes them
+	default void complete() throws IOException {
+	}
+
+	@Override
+	void close() throws IOException;
+
+	// csv file format: header, then id;normalized_sentence;word_count lines, gzip-compressed on demand
+	static NormalizedSink csv(Path path, String header, boolean gzip) throws IOException {
+		OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		if (gzip) {
+			out = new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+		}
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writer.write(header);
+		writer.newLine();
+
+		return new NormalizedSink() {
+			@Override
+			public void write(List<NormalizedRow> rows) throws IOException {
+				for (NormalizedRow row : rows) {
+					writer.write(Integer.toString(row.id()));
+					writer.write(SEPARATOR);
+					writer.write(row.normalizedSentence());
+					writer.write(SEPARATOR);
+					writer.write(Integer.toString(row.wordCount()));
+					writer.newLine();
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				writer.close();
+			}
+
+			@Override
+			public String toString() {
+				return path.toString();
+			}
+		};
+	}
+
+	// Replaces the content of the table, like the csv file is truncated, in a single transaction: the rows are inserted
+	// by batches of batchSize and only show once the sink completed, so a failed job leaves the former content
+	static NormalizedSink database(NormalizedRowBulkRepository repository, NormalizedTable table, int batchSize) {
+		NormalizedRowBulkRepository.Rebuild rebuild = repository.rebuild(table);
+
+		return new NormalizedSink() {
+			private final List<NormalizedRow> pending = new ArrayList<>(batchSize);
+
+			@Override
+			public void write(List<NormalizedRow> rows) {
+				for (NormalizedRow row : rows) {
+					pending.add(row);
+					if (pending.size() == batchSize) {
+						flush();
+					}
+				}
+			}
+
+			@Override
+			public void complete() {
+				if (!pending.isEmpty()) {
+					flush();
+				}
+				rebuild.commit();
+			}
+
+			// rolls back unless completed
+			@Override
+			public void close() {
+				rebuild.close();
+			}
+
+			private void flush() {
+				rebuild.insertAll(pending);
+				pending.clear();
+			}
+
+			@Override
+			public String toString() {
+				return table.getTableName();
+			}
+		};
+	}
+
+	// Keeps the content of the table: the rows are inserted by batches of batchSize, one transaction each, so a failed
+	// job leaves the batches written before the failure; those with an id up to replacedUpToId replace the existing row
+	// with the same id
+	static NormalizedSink database(NormalizedRowBulkRepository repository, NormalizedTable table, int batchSize,
+								   Integer replacedUpToId) {
+
+		return new NormalizedSink() {
+			private final List<NormalizedRow> pending = new ArrayList<>(batchSize);
+
+			@Override
+			public void write(List<NormalizedRow> rows) {
+				for (NormalizedRow row : rows) {
+					pending.add(row);
+					if (pending.size() == batchSize) {
+						flush();
+					}
+				}
+			}
+
+			@Override
+			public void close() {
+				if (!pending.isEmpty()) {
+					flush();
+				}
+			}
+
+			private void flush() {
+				if (replacedUpToId == null) {
+					repository.insertAll(table, pending);
+				} else {
+					repository.replaceAll(table, pending, replacedUpToId);
+				}
+				pending.clear();
+			}
+
+			@Override
+			public String toString() {
+				return table.getTableName();
+			}
+		};
+	}
+}
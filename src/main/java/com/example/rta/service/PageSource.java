@@ -0,0 +1,142 @@
+package com.example.rta.service;
+
+import com.example.rta.config.ReadMode;
+import com.example.rta.config.RtaProperties;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+import static util.Constants.KEYSET_START_ID;
+
+/**
+ * Consecutive pages of a table scan, in id order. An empty page marks the end of the scan.
+ */
+interface PageSource<T> extends AutoCloseable {
+
+	List<T> nextPage();
+
+	@Override
+	default void close() {
+	}
+
+	/**
+	 * Open a page source in the configured read mode.
+	 *
+	 * @param keysetFetcher seek query returning the rows after the given id (used in {@link ReadMode#KEYSET})
+	 * @param streamer      cursor over the whole scan for the given fetch size (used in {@link ReadMode#STREAM})
+	 */
+	static <T> PageSource<T> open(RtaProperties.Read read, BiFunction<Integer, Pageable, Slice<T>> keysetFetcher,
+								  IntFunction<Stream<T>> streamer, Function<T, Integer> idGetter, int pageSize) {
+		if (read.getMode() == ReadMode.STREAM) {
+			return stream(streamer.apply(read.getFetchSize()), pageSize);
+		}
+		return keyset(keysetFetcher, idGetter, pageSize, KEYSET_START_ID);
+	}
+
+	/**
+	 * Open a page source over the rows after the given id, in the configured read mode.
+	 *
+	 * @param streamer cursor over the rows after the given id, for the given fetch size (used in {@link ReadMode#STREAM})
+	 */
+	static <T> PageSource<T> openAfter(RtaProperties.Read read, Integer afterId,
+									   BiFunction<Integer, Pageable, Slice<T>> keysetFetcher,
+									   BiFunction<Integer, Integer, Stream<T>> streamer, Function<T, Integer> idGetter,
+									   int pageSize) {
+		if (read.getMode() == ReadMode.STREAM) {
+			return stream(streamer.apply(afterId, read.getFetchSize()), pageSize);
+		}
+		return keyset(keysetFetcher, idGetter, pageSize, afterId);
+	}
+
+	/**
+	 * Fetch the pages of a source ahead of the caller, as configured by rta.read.prefetch-pages and
+	 * rta.read.prefetch-memory-mb; the source itself when prefetching is disabled.
+	 *
+	 * @param rowBytes estimated heap of a row
+	 */
+	static <T> PageSource<T> prefetch(RtaProperties.Read read, PageSource<T> source, ToLongFunction<T> rowBytes) {
+		if (read.getPrefetchPages() <= 0) return source;
+		return new PrefetchingPageSource<>(source, read.getPrefetchPages(), read.getPrefetchMemoryMb() * 1024L * 1024L,
+				rowBytes);
+	}
+
+	// Always asks for the first page: the position is carried by the last id seen, so later pages cost the same
+	static <T> PageSource<T> keyset(BiFunction<Integer, Pageable, Slice<T>> fetcher, Function<T, Integer> idGetter,
+									int pageSize, Integer afterId) {
+		PageRequest pageable = PageRequest.of(0, pageSize, Sort.by("id"));
+
+		return new PageSource<>() {
+			private Integer lastId = afterId;
+			private boolean hasNext = true;
+
+			@Override
+			public List<T> nextPage() {
+				if (!hasNext) return List.of();
+
+				Slice<T> slice = fetcher.apply(lastId, pageable);
+				hasNext = slice.hasNext();
+				if (slice.hasContent()) {
+					lastId = idGetter.apply(slice.getContent().getLast());
+				}
+				return slice.getContent();
+			}
+		};
+	}
+
+	// Cuts a row stream into pages; closing the source closes the stream and its cursor
+	static <T> PageSource<T> stream(Stream<T> rows, int pageSize) {
+		Iterator<T> iterator = rows.iterator();
+
+		return new PageSource<>() {
+			@Override
+			public List<T> nextPage() {
+				List<T> page = new ArrayList<>(pageSize);
+				while (page.size() < pageSize && iterator.hasNext()) {
+					page.add(iterator.next());
+				}
+				return page;
+			}
+
+			@Override
+			public void close() {
+				rows.close();
+			}
+		};
+	}
+
+	// Serves the pages of the first source, then the pages of the rest; closing closes both
+	static <T> PageSource<T> concat(PageSource<T> first, PageSource<T> rest) {
+		return new PageSource<>() {
+			private boolean firstEnded;
+
+			@Override
+			public List<T> nextPage() {
+				if (!firstEnded) {
+					List<T> page = first.nextPage();
+					if (!page.isEmpty()) return page;
+					firstEnded = true;
+				}
+				return rest.nextPage();
+			}
+
+			@Override
+			public void close() {
+				try {
+					first.close();
+				} finally {
+					rest.close();
+				}
+			}
+		};
+	}
+}
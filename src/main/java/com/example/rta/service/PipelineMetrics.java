@@ -0,0 +1,129 @@
+package com.example.rta.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import util.CsvRecordWriter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meters of the job stages, published by the actuator under /actuator/metrics/rta.*. The timers are tagged with the
+ * job they measure, so that a slow run can be traced to the stage it spends its time in: fetching pages, scanning the
+ * bloc documents, matching, or waiting for a csv writer. Their percentiles are set in application.yml.
+ */
+@Component
+class PipelineMetrics {
+	static final String NORMALIZE = "normalize";
+	static final String SENTENCES_RELATIONSHIPS = "sentences_relationships";
+	static final String BLOC_CONTENU_RELATIONSHIPS = "bloc_contenu_relationships";
+
+	private static final String JOB_TAG = "job";
+	private static final String RESULT_TAG = "result";
+	private static final String FILE_TAG = "file";
+
+	private final MeterRegistry registry;
+	private final Timer blocScan;
+	private final Timer sentenceMatch;
+	private final Counter libellePhrases;
+	private final Counter libelleExtraPhrases;
+	private final Counter notFoundPhrases;
+	private final Counter fuzzyPhrases;
+	private final Counter matchedLibelles;
+	private final Counter unmatchedLibelles;
+	private final Map<String, AtomicInteger> tasksInFlight = new ConcurrentHashMap<>();
+	// writer of each output file, the one of the latest run once it is closed
+	private final Map<String, CsvRecordWriter> writers = new ConcurrentHashMap<>();
+
+	PipelineMetrics(MeterRegistry registry) {
+		this.registry = registry;
+		this.blocScan = Timer.builder("rta.bloc.scan")
+				.description("Parsing of one blocxml document, with the lookup of each of its phrases")
+				.register(registry);
+		this.sentenceMatch = Timer.builder("rta.sentence.match")
+				.description("Search of the content editorial sentences in one normalized libelle")
+				.register(registry);
+		this.libellePhrases = phraseCounter("libelle");
+		this.libelleExtraPhrases = phraseCounter("libelle_extra");
+		this.notFoundPhrases = phraseCounter("not_found");
+		this.fuzzyPhrases = phraseCounter("fuzzy");
+		this.matchedLibelles = libelleCounter("matched");
+		this.unmatchedLibelles = libelleCounter("not_found");
+	}
+
+	private Counter phraseCounter(String result) {
+		return Counter.builder("rta.bloc.phrases")
+				.description("Phrases of the blocxml documents, by the table they were found in")
+				.tag(RESULT_TAG, result)
+				.register(registry);
+	}
+
+	private Counter libelleCounter(String result) {
+		return Counter.builder("rta.sentence.libelles")
+				.description("Normalized libelles searched for content editorial sentences")
+				.tag(RESULT_TAG, result)
+				.register(registry);
+	}
+
+	Timer pageFetch(String job) {
+		return Timer.builder("rta.page.fetch")
+				.description("Fetch of one page of rows from the database")
+				.tag(JOB_TAG, job)
+				.register(registry);
+	}
+
+	Timer blocScan() {
+		return blocScan;
+	}
+
+	Timer sentenceMatch() {
+		return sentenceMatch;
+	}
+
+	Counter libellePhrases() {
+		return libellePhrases;
+	}
+
+	Counter libelleExtraPhrases() {
+		return libelleExtraPhrases;
+	}
+
+	Counter notFoundPhrases() {
+		return notFoundPhrases;
+	}
+
+	Counter fuzzyPhrases() {
+		return fuzzyPhrases;
+	}
+
+	Counter libelles(boolean matched) {
+		return matched ? matchedLibelles : unmatchedLibelles;
+	}
+
+	// Batch tasks running on the BatchScheduler pool, summed over the running jobs of the same kind
+	AtomicInteger tasksInFlight(String job) {
+		return tasksInFlight.computeIfAbsent(job, key -> registry.gauge("rta.tasks.in.flight", Tags.of(JOB_TAG, key),
+				new AtomicInteger()));
+	}
+
+	// Backlog of the writer of a file, and the time its producers spent blocked on the full ring buffer
+	void watch(String file, CsvRecordWriter writer) {
+		writers.put(file, writer);
+
+		Gauge.builder("rta.writer.backlog", writers, current -> current.get(file).getBacklog())
+				.description("Records waiting for the csv writer thread")
+				.tag(FILE_TAG, file)
+				.register(registry);
+		TimeGauge.builder("rta.writer.wait", writers, TimeUnit.NANOSECONDS, current -> current.get(file).getWaitNanos())
+				.description("Time producers spent waiting for the csv writer, since the file was opened")
+				.tag(FILE_TAG, file)
+				.register(registry);
+	}
+}
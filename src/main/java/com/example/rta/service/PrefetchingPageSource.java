@@ -0,0 +1,133 @@
+package com.example.rta.service;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * Fetches the next pages of a source on a virtual thread of its own while the caller processes the current one, so
+ * that the database and the matching work at the same time. Up to depth pages wait ahead, and no more are fetched
+ * once the waiting pages hold about maxBytes: the next page is always fetched when none is waiting.
+ * The source is only used from the fetching thread: a keyset source fetches each page on a connection of its own, a
+ * stream source keeps reading its cursor from the stateless session it opened. A failed fetch, errors included, is
+ * rethrown by the {@link #nextPage()} call that would have returned the page.
+ */
+final class PrefetchingPageSource<T> implements PageSource<T> {
+	private final PageSource<T> source;
+	private final int depth;
+	private final long maxBytes;
+	private final ToLongFunction<T> rowBytes;
+	private final Thread fetcher;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition pageReady = lock.newCondition();
+	private final Condition roomReady = lock.newCondition();
+	// guarded by lock
+	private final ArrayDeque<Prefetched<T>> pages = new ArrayDeque<>();
+	private long bytesAhead;
+	private boolean closed;
+
+	// a fetched page and its estimated size, or the failure of its fetch
+	private record Prefetched<T>(List<T> page, long bytes, Throwable failure) {
+	}
+
+	PrefetchingPageSource(PageSource<T> source, int depth, long maxBytes, ToLongFunction<T> rowBytes) {
+		this.source = source;
+		this.depth = depth;
+		this.maxBytes = maxBytes;
+		this.rowBytes = rowBytes;
+		this.fetcher = Thread.ofVirtual().name("page-prefetch").start(this::fetchAll);
+	}
+
+	private void fetchAll() {
+		while (true) {
+			lock.lock();
+			try {
+				while (!closed && (pages.size() >= depth || !pages.isEmpty() && bytesAhead >= maxBytes)) {
+					roomReady.awaitUninterruptibly();
+				}
+				if (closed) return;
+			} finally {
+				lock.unlock();
+			}
+
+			Prefetched<T> prefetched;
+			try {
+				List<T> page = source.nextPage();
+				long bytes = 0;
+				for (T row : page) {
+					bytes += rowBytes.applyAsLong(row);
+				}
+				prefetched = new Prefetched<>(page, bytes, null);
+			} catch (Throwable e) {
+				// errors too: the caller would wait for the page forever
+				prefetched = new Prefetched<>(null, 0, e);
+			}
+
+			lock.lock();
+			try {
+				pages.add(prefetched);
+				bytesAhead += prefetched.bytes();
+				pageReady.signal();
+			} finally {
+				lock.unlock();
+			}
+			// the end of the scan, or a failure, is the last page
+			if (prefetched.failure() != null || prefetched.page().isEmpty()) return;
+		}
+	}
+
+	@Override
+	public List<T> nextPage() {
+		lock.lock();
+		try {
+			while (pages.isEmpty()) {
+				pageReady.await();
+			}
+			Prefetched<T> prefetched = pages.peek();
+			if (prefetched.failure() instanceof RuntimeException e) throw e;
+			if (prefetched.failure() instanceof Error e) throw e;
+			if (prefetched.failure() != null) throw new RuntimeException("Failed to fetch a page", prefetched.failure());
+			// keep serving the end of the scan
+			if (prefetched.page().isEmpty()) return prefetched.page();
+
+			pages.poll();
+			bytesAhead -= prefetched.bytes();
+			roomReady.signal();
+			return prefetched.page();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a page", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop fetching, once the page being fetched (if any) arrived, then close the source.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			roomReady.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		boolean interrupted = false;
+		while (true) {
+			try {
+				fetcher.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		source.close();
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+}
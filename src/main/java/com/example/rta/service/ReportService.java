@@ -1,300 +1,680 @@
 package com.example.rta.service;
 
+import com.example.rta.config.RtaProperties;
+import com.example.rta.dto.BlocXmlDto;
+import com.example.rta.dto.IdRange;
 import com.example.rta.dto.NormalizedSentenceDto;
-import com.example.rta.model.entity.BlocContenu;
-import com.example.rta.model.entity.NormalizedLibelle;
-import com.example.rta.model.entity.NormalizedLibelleExtra;
+import com.example.rta.dto.OriginalLibelleDto;
+import com.example.rta.dto.Shard;
 import com.example.rta.model.repository.*;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
-
-import java.io.BufferedWriter;
+import util.AhoCorasick;
+import util.CsvRecordWriter;
+import util.EditDistanceIndex;
+import util.PhraseCounter;
+import util.PhraseDictionary;
+import util.RecordBuffer;
+import util.RecordFormat;
+import util.RecordSink;
+
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import static util.Constants.*;
-import static util.ParseXML.parseXml;
+import static util.ParseXML.forEachText;
 import static util.ParseXML.trimAndLowerCaseAndRemoveLineBreaks;
 
 @Service
 public class ReportService {
-	private static final int MAX_CONCURRENT_TASKS = 25;
-
-	private static final String BLOC_CONTENU_OUT = "bloc_contenu_out.csv";
-	private static final String BLOC_CONTENU_NOT_FOUND = "bloc_contenu_not_found.csv";
-	private static final String LIBELLE_MATCHES_OUT = "libelle_matches.csv";
-	private static final String LIBELLE_EXTRA_MATCHES_OUT = "libelle_matches_extra.csv";
-
-	private final Object blocContenuLock = new Object();
-	private final Object blocContenuNotFoundLock = new Object();
-	private final Object sentenceRelationshipLock = new Object();
+	// output names, completed with the shard suffix and the extension of rta.write.format (package-private for the
+	// shard merger)
+	static final String BLOC_CONTENU_OUT = "bloc_contenu_out";
+	static final String BLOC_CONTENU_NOT_FOUND = "bloc_contenu_not_found";
+	static final String BLOC_CONTENU_FUZZY = "bloc_contenu_fuzzy";
+	// every not found phrase of the completed pages, counted into bloc_contenu_not_found once the job completed
+	private static final String BLOC_CONTENU_NOT_FOUND_OCCURRENCES = "bloc_contenu_not_found_occurrences";
+	static final String LIBELLE_MATCHES_OUT = "libelle_matches";
+	static final String LIBELLE_EXTRA_MATCHES_OUT = "libelle_matches_extra";
+
+	private static final String SENTENCE_RELATIONSHIP_HEADER = "libelleId;cont_editorial_id";
+	private static final String BLOC_CONTENU_HEADER = "blocXmlId;libelleId;libelleExtraId";
+	private static final String BLOC_CONTENU_FUZZY_HEADER = "blocXmlId;libelleId;libelleExtraId;distance;phrase";
+	// the phrase last, like in bloc_contenu_fuzzy: it may hold separators
+	static final String BLOC_CONTENU_NOT_FOUND_HEADER = "count;first_bloc_id;phrase";
+	private static final String BLOC_CONTENU_NOT_FOUND_OCCURRENCES_HEADER = "blocXmlId;phrase";
+
+	// page-level checkpoints, completed with the shard suffix and removed once the job completed
+	private static final String SENTENCES_CHECKPOINT = "sentences_relationships";
+	private static final String BLOC_CONTENU_CHECKPOINT = "bloc_contenu_relationships";
+	static final String CHECKPOINT_EXTENSION = ".checkpoint";
+	// next to each output of a shard: the inclusive id range it covers, firstId;lastId
+	static final String RANGE_EXTENSION = ".range";
+	private static final String WORD_COUNT_KEY = "wordCount";
+	private static final String FORMAT_KEY = "format";
+	private static final String PHASE_KEY = "phase";
+	private static final String LAST_ID_KEY = "lastId";
+	private static final String OFFSET_KEY_PREFIX = "offset.";
+	private static final String RANGE_MIN_KEY_PREFIX = "rangeMin.";
+	private static final String RANGE_MAX_KEY_PREFIX = "rangeMax.";
+	private static final String PHASE_LIBELLE_EXTRA = "libelle_extra";
+	private static final String PHASE_LIBELLE = "libelle";
+	private static final String PHASE_BLOC_CONTENU = "bloc_contenu";
+
+	// record, String and array headers of a prefetched row
+	private static final int ROW_OVERHEAD_BYTES = 64;
+	// names of the cached match structures, completed with their parameter
+	private static final String SENTENCES_CACHE_KEY = "sentences-";
+	private static final String FUZZY_CACHE_KEY = "fuzzy-";
+	// value of the phrases missing from a dictionary
+	private static final int NO_ID = Integer.MIN_VALUE;
+	// tags of the fuzzy index entries
+	private static final int LIBELLE_TAG = 0;
+	private static final int LIBELLE_EXTRA_TAG = 1;
 
 	private final BlocContenuRepository blocContenuRepository;
 	private final NormalizedContEditorialSentenceRepository normalizedContEditorialSentenceRepository;
 	private final NormalizedLibelleRepository normalizedLibelleRepository;
 	private final NormalizedLibelleExtraRepository normalizedLibelleExtraRepository;
+	private final RtaProperties properties;
+	private final PipelineMetrics metrics;
+	private final DictionarySnapshots snapshots;
+	private final DictionaryCache dictionaryCache;
+	private final BatchScheduler scheduler;
 
 	ReportService(BlocContenuRepository blocContenuRepository,
 				  NormalizedContEditorialSentenceRepository normalizedContEditorialSentenceRepository,
 				  NormalizedLibelleRepository normalizedLibelleRepository,
-				  NormalizedLibelleExtraRepository normalizedLibelleExtraRepository) {
+				  NormalizedLibelleExtraRepository normalizedLibelleExtraRepository,
+				  RtaProperties properties, PipelineMetrics metrics, DictionarySnapshots snapshots,
+				  DictionaryCache dictionaryCache, BatchScheduler scheduler) {
 		this.blocContenuRepository = blocContenuRepository;
 		this.normalizedContEditorialSentenceRepository = normalizedContEditorialSentenceRepository;
 		this.normalizedLibelleRepository = normalizedLibelleRepository;
 		this.normalizedLibelleExtraRepository = normalizedLibelleExtraRepository;
+		this.properties = properties;
+		this.metrics = metrics;
+		this.snapshots = snapshots;
+		this.dictionaryCache = dictionaryCache;
+		this.scheduler = scheduler;
 	}
 
 
-	public void generateSentencesRelationships(int wordCount) {
-		List<NormalizedSentenceDto> normalizedContEditorialSentenceList =
-				normalizedContEditorialSentenceRepository.findIdAndSentenceWithWordCountGreaterThanEqual(wordCount);
-
-		Path libelleOut = Paths.get(LIBELLE_MATCHES_OUT);
-		Path libelleExtraOut = Paths.get(LIBELLE_EXTRA_MATCHES_OUT);
-
-		try (BufferedWriter writerLibelle = Files.newBufferedWriter(libelleOut, StandardCharsets.UTF_8,
-					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-			 BufferedWriter writerLibelleExtra = Files.newBufferedWriter(libelleExtraOut, StandardCharsets.UTF_8,
-					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-			 ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()
-		) {
-			// semaphore: limit tasks in flight to avoid unbounded in-memory queueing
-			Semaphore semaphore = new Semaphore(MAX_CONCURRENT_TASKS);
-
-			writeHeader(writerLibelle, writerLibelleExtra);
-
-			// process NormalizedLibelleExtra
-			processEntities(pageable -> normalizedLibelleExtraRepository.findAllByWordCountGreaterThanEqual(wordCount, pageable),
-					NormalizedLibelleExtra::getNormalizedLibelle, NormalizedLibelleExtra::getId,
-					writerLibelleExtra, normalizedContEditorialSentenceList, exec, semaphore);
+	public void generateSentencesRelationships(int wordCount, Shard shard, JobProgress progress) {
+		generateSentencesRelationships(Path.of("."), wordCount, shard, progress);
+	}
 
-			// process NormalizedLibelle
-			processEntities(pageable -> normalizedLibelleRepository.findAllByWordCountGreaterThanEqual(wordCount, pageable),
-					NormalizedLibelle::getNormalizedLibelle, NormalizedLibelle::getId,
-					writerLibelle, normalizedContEditorialSentenceList, exec, semaphore);
+	// the outputs and the checkpoint in the given directory
+	void generateSentencesRelationships(Path directory, int wordCount, Shard shard, JobProgress progress) {
+		// compiled once while the sentences are unchanged, every libelle is then scanned a single time for all of them
+		SentenceIndex sentenceIndex = dictionaryCache.get(SENTENCES_CACHE_KEY + wordCount,
+				List.of(NormalizedTable.CONT_EDITORIAL_SENTENCE), () -> loadSentenceIndex(wordCount),
+				SentenceIndex::memoryBytes);
+		List<NormalizedSentenceDto> normalizedContEditorialSentenceList = sentenceIndex.sentences();
+		AhoCorasick sentenceAutomaton = sentenceIndex.automaton();
+
+		RecordFormat format = properties.getWrite().getFormat();
+
+		try {
+			// resume a run of the shard that died for the same word count and format, after its last completed page
+			JobCheckpoint checkpoint = JobCheckpoint.load(directory.resolve(SENTENCES_CHECKPOINT + shard.suffix()
+					+ CHECKPOINT_EXTENSION));
+			if (!checkpoint.isEmpty() && (checkpoint.getInt(WORD_COUNT_KEY) != wordCount
+					|| !format.name().equals(checkpoint.get(FORMAT_KEY)))) {
+				checkpoint.delete();
+			}
+			boolean resume = !checkpoint.isEmpty();
+			checkpoint.set(WORD_COUNT_KEY, wordCount).set(FORMAT_KEY, format);
+			IdRange extraRange = shardRange(checkpoint, PHASE_LIBELLE_EXTRA, shard,
+					normalizedLibelleExtraRepository::findIdRange);
+			IdRange libelleRange = shardRange(checkpoint, PHASE_LIBELLE, shard, normalizedLibelleRepository::findIdRange);
+
+			// single writer thread per file, fed without locks by the matching tasks
+			try (CsvRecordWriter writerLibelle = openOutput(directory, LIBELLE_MATCHES_OUT + shard.suffix(),
+					SENTENCE_RELATIONSHIP_HEADER, 2, format, checkpoint);
+				 CsvRecordWriter writerLibelleExtra = openOutput(directory,
+						 LIBELLE_EXTRA_MATCHES_OUT + shard.suffix(), SENTENCE_RELATIONSHIP_HEADER, 2, format, checkpoint)
+			) {
+				List<CsvRecordWriter> outputs = List.of(writerLibelle, writerLibelleExtra);
+				String phase = resume ? checkpoint.get(PHASE_KEY) : PHASE_LIBELLE_EXTRA;
+				int afterId = resume ? checkpoint.getInt(LAST_ID_KEY) : startAfter(extraRange);
+				progress.setTotalRows(phase.equals(PHASE_LIBELLE_EXTRA)
+						? normalizedLibelleExtraRepository.countByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(
+								wordCount, afterId, extraRange.max())
+						+ normalizedLibelleRepository.countByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(
+								wordCount, startAfter(libelleRange), libelleRange.max())
+						: normalizedLibelleRepository.countByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(
+								wordCount, afterId, libelleRange.max()));
+
+				// process NormalizedLibelleExtra
+				if (phase.equals(PHASE_LIBELLE_EXTRA)) {
+					processEntities(PageSource.openAfter(properties.getRead(), afterId,
+									(lastId, pageable) -> normalizedLibelleExtraRepository
+											.findByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(
+													wordCount, lastId, extraRange.max(), pageable),
+									(lastId, fetchSize) -> normalizedLibelleExtraRepository
+											.streamByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(
+													wordCount, lastId, extraRange.max(), fetchSize),
+									NormalizedSentenceDto::id, PAGE_SIZE),
+							NormalizedSentenceDto::normalizedSentence, NormalizedSentenceDto::id,
+							writerLibelleExtra, normalizedContEditorialSentenceList, sentenceAutomaton, checkpoint,
+							PHASE_LIBELLE_EXTRA, outputs, progress);
+
+					afterId = startAfter(libelleRange);
+					saveCheckpoint(checkpoint, PHASE_LIBELLE, afterId, outputs);
+				}
 
-			// shutdown executor
-			exec.shutdown();
+				// process NormalizedLibelle
+				processEntities(PageSource.openAfter(properties.getRead(), afterId,
+								(lastId, pageable) -> normalizedLibelleRepository
+										.findByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(
+												wordCount, lastId, libelleRange.max(), pageable),
+								(lastId, fetchSize) -> normalizedLibelleRepository
+										.streamByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual(
+												wordCount, lastId, libelleRange.max(), fetchSize),
+								NormalizedSentenceDto::id, PAGE_SIZE),
+						NormalizedSentenceDto::normalizedSentence, NormalizedSentenceDto::id,
+						writerLibelle, normalizedContEditorialSentenceList, sentenceAutomaton, checkpoint,
+						PHASE_LIBELLE, outputs, progress);
+			}
 
+			writeRange(directory, shard, format.fileName(LIBELLE_EXTRA_MATCHES_OUT + shard.suffix()), extraRange);
+			writeRange(directory, shard, format.fileName(LIBELLE_MATCHES_OUT + shard.suffix()), libelleRange);
+			checkpoint.delete();
 		} catch (Exception e) {
 			throw new RuntimeException("Error counting occurrences", e);
 		}
 	}
 
-	private void writeHeader(BufferedWriter writerLibelle, BufferedWriter writerLibelleExtra) throws IOException {
-		writerLibelle.write("libelleId;cont_editorial_id");
-		writerLibelle.newLine();
-		writerLibelleExtra.write("libelleId;cont_editorial_id");
-		writerLibelleExtra.newLine();
-	}
-
 	// Generic processor for paged entities that expose a normalized libelle string and an id
-	private <T> void processEntities(Function<PageRequest, Page<T>> pageFetcher,
+	private <T> void processEntities(PageSource<T> pageSource,
 									 Function<T, String> normalizedGetter,
 									 Function<T, Integer> idGetter,
-									 BufferedWriter writer,
+									 CsvRecordWriter writer,
 									 List<NormalizedSentenceDto> sentencesList,
-									 ExecutorService exec,
-									 Semaphore semaphore) throws Exception {
-		int page = 0;
-		Page<T> pageResp;
-
-		do {
-			PageRequest pageable = PageRequest.of(page, PAGE_SIZE, Sort.by("id"));
-			pageResp = pageFetcher.apply(pageable);
+									 AhoCorasick sentenceAutomaton,
+									 JobCheckpoint checkpoint,
+									 String phase,
+									 List<CsvRecordWriter> outputs,
+									 JobProgress progress) throws Exception {
+		Timer pageFetch = metrics.pageFetch(PipelineMetrics.SENTENCES_RELATIONSHIPS);
+		AtomicInteger tasksInFlight = metrics.tasksInFlight(PipelineMetrics.SENTENCES_RELATIONSHIPS);
+		boolean ordered = properties.getWrite().isOrdered();
+
+		// the next page is fetched while this one is matched
+		try (PageSource<T> pages = PageSource.prefetch(properties.getRead(), pageSource,
+				entity -> rowBytes(normalizedGetter.apply(entity)))) {
+			List<T> page;
+			while (!(page = pageFetch.record(pages::nextPage)).isEmpty()) {
+				progress.checkCancelled();
+				List<List<T>> batches = scheduler.batches(page);
+				List<Runnable> tasks = new ArrayList<>(batches.size());
+				// ordered output: the records of each batch, written in page order once the page completed
+				List<RecordBuffer> segments = ordered ? new ArrayList<>(batches.size()) : null;
+
+				for (List<T> batch : batches) {
+					RecordSink sink = segmentOf(writer, segments);
+					tasks.add(() -> {
+						tasksInFlight.incrementAndGet();
+						try {
+							for (T entity : batch) {
+								String normalized = normalizedGetter.apply(entity);
+								List<Integer> matchingIds = metrics.sentenceMatch()
+										.record(() -> findSentenceMatches(normalized, sentencesList, sentenceAutomaton));
+								metrics.libelles(matchingIds != null).increment();
+
+								if (matchingIds != null) {
+									printSentenceRelationships(idGetter.apply(entity), matchingIds, sink);
+								}
+							}
+						} finally {
+							tasksInFlight.decrementAndGet();
+						}
+					});
+				}
 
-			List<Future<?>> futures = new ArrayList<>();
+				// the page is complete once all its batches are
+				scheduler.runAll(tasks);
+				if (ordered) {
+					for (RecordBuffer segment : segments) {
+						segment.drainTo(writer);
+					}
+				}
 
-			for (T entity : pageResp.getContent()) {
-				semaphore.acquire();
+				saveCheckpoint(checkpoint, phase, idGetter.apply(page.getLast()), outputs);
+				progress.addRowsProcessed(page.size());
+			}
+		}
+	}
 
-				Future<?> f = exec.submit(() -> {
-					try {
-						String normalized = normalizedGetter.apply(entity);
-						Integer libelleId = idGetter.apply(entity);
-						List<Integer> matchingIds = findSentenceMatches(normalized, sentencesList);
+	// Id bounds of the shard in a table, kept in the checkpoint so that a resumed run scans the same range even if rows
+	// were added or removed meanwhile
+	private static IdRange shardRange(JobCheckpoint checkpoint, String phase, Shard shard, Supplier<IdRange> tableRange) {
+		if (checkpoint.get(RANGE_MIN_KEY_PREFIX + phase) != null) {
+			return new IdRange(checkpoint.getInt(RANGE_MIN_KEY_PREFIX + phase),
+					checkpoint.getInt(RANGE_MAX_KEY_PREFIX + phase));
+		}
 
-						if (matchingIds != null) {
-							printSentenceRelationships(libelleId, matchingIds, writer);
-						}
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					} finally {
-						// release permit so main thread can submit more tasks
-						semaphore.release();
-					}
-				}, exec);
-				futures.add(f);
-			}
+		IdRange range = shard.bounds(tableRange);
+		checkpoint.set(RANGE_MIN_KEY_PREFIX + phase, range.min()).set(RANGE_MAX_KEY_PREFIX + phase, range.max());
+		return range;
+	}
 
-			// wait for all futures of this page to complete before advancing
-			for (Future<?> future : futures) {
-				future.get();
-			}
+	// Record the id range a completed output of a shard covers, for ShardMerger to check that the shards cover their
+	// table once: each instance resolves its bounds on its own, possibly after the table changed
+	private static void writeRange(Path directory, Shard shard, String output, IdRange range) throws IOException {
+		if (!shard.isAll()) {
+			Files.writeString(directory.resolve(output + RANGE_EXTENSION), range.min() + SEPARATOR + range.max());
+		}
+	}
 
-			page++;
-			writer.flush();
-		} while (pageResp.hasNext());
+	// Keyset position before the first id of a range
+	private static int startAfter(IdRange range) {
+		return range.min() == Integer.MIN_VALUE ? KEYSET_START_ID : range.min() - 1;
 	}
 
-	private List<Integer> findSentenceMatches(String normalizedLibelleSentence,
-											  List<NormalizedSentenceDto> normalizedContEditorialSentenceList) {
-		if (normalizedLibelleSentence == null) return null;
+	// Estimated heap of a row holding the given text: the record, its String and the chars
+	private static long rowBytes(String text) {
+		return ROW_OVERHEAD_BYTES + (text == null ? 0 : 2L * text.length());
+	}
 
-		List<NormalizedSentenceDto> matches = new ArrayList<>();
-		for (NormalizedSentenceDto s : normalizedContEditorialSentenceList) {
-			if (normalizedLibelleSentence.contains(s.normalizedSentence())) {
-				matches.add(s);
-			}
-		}
+	// Sink of one task: the output itself, or a new segment of the page when the output is ordered
+	private static RecordSink segmentOf(RecordSink output, List<RecordBuffer> segments) {
+		if (segments == null) return output;
 
-		return removeDuplicatedMatchesAndGetIds(matches);
+		RecordBuffer segment = new RecordBuffer();
+		segments.add(segment);
+		return segment;
 	}
 
-	private List<Integer> removeDuplicatedMatchesAndGetIds(List<NormalizedSentenceDto> matches) {
-		if (matches == null || matches.isEmpty()) return null;
+	// Reopen an output at its checkpointed size, or create it when the job starts from scratch
+	private CsvRecordWriter openOutput(Path directory, String name, String header, int columns, RecordFormat format,
+									   JobCheckpoint checkpoint) throws IOException {
+		Path path = directory.resolve(format.fileName(name));
+		String offset = checkpoint.get(OFFSET_KEY_PREFIX + path.getFileName());
+		CsvRecordWriter writer = offset == null
+				? new CsvRecordWriter(path, header, columns, SEPARATOR_CHAR, format)
+				: CsvRecordWriter.resume(path, columns, SEPARATOR_CHAR, format, Long.parseLong(offset));
+		metrics.watch(path.getFileName().toString(), writer);
+		return writer;
+	}
 
-		if (matches.size() == 1) {
-			return List.of(matches.getFirst().id());
+	// Page-level checkpoint: sync every output, then record their sizes with the last id of the completed page. The
+	// lines a crashed run writes after these offsets belong to pages that the resumed run processes again: it cuts them
+	private void saveCheckpoint(JobCheckpoint checkpoint, String phase, int lastId, List<CsvRecordWriter> outputs)
+			throws IOException {
+		for (CsvRecordWriter output : outputs) {
+			checkpoint.set(OFFSET_KEY_PREFIX + output.getPath().getFileName(), output.sync());
 		}
+		checkpoint.set(PHASE_KEY, phase).set(LAST_ID_KEY, lastId).save();
+	}
 
-		// keep longest-first so that shorter sentences contained in longer ones are excluded
-		matches.sort((a, b) -> Integer.compare(b.normalizedSentence().length(), a.normalizedSentence().length()));
+	// package-private for the benchmarks
+	List<Integer> findSentenceMatches(String normalizedLibelleSentence,
+									  List<NormalizedSentenceDto> normalizedContEditorialSentenceList,
+									  AhoCorasick sentenceAutomaton) {
+		if (normalizedLibelleSentence == null) return null;
 
-		List<Integer> filtered = new ArrayList<>();
-		filtered.add(matches.getFirst().id()); // add the longest one
+		SentenceOccurrences occurrences = new SentenceOccurrences();
+		sentenceAutomaton.findMatches(normalizedLibelleSentence, occurrences);
 
-		for (int i = 1; i < matches.size(); i++) {
-			boolean contained = false;
-			NormalizedSentenceDto candidate = matches.get(i);
+		return removeDuplicatedMatchesAndGetIds(occurrences, normalizedContEditorialSentenceList);
+	}
 
-			for (int j = 0; j < i; j++) {
-				if (matches.get(j).normalizedSentence().contains(candidate.normalizedSentence())) {
-					contained = true;
-					break;
-				}
+	// A matched sentence is contained in a longer matched sentence exactly when one of its occurrences lies inside an
+	// occurrence of the longer one, so containment is decided with one sweep over the occurrence intervals.
+	// Result: ids of the sentences not contained in a longer one, longest first (equal sentences collapse to the first id)
+	List<Integer> removeDuplicatedMatchesAndGetIds(SentenceOccurrences occurrences,
+												   List<NormalizedSentenceDto> normalizedContEditorialSentenceList) {
+		int size = occurrences.size;
+		if (size == 0) return null;
+
+		// sweep by decreasing end offset: an occurrence is contained in an already visited one iff that one starts at
+		// or before it. Occurrences sharing an end offset are reported longest first (then by list index), which is
+		// the precedence order, so they are visited forward
+		long[] patternFlags = new long[size];
+		int minStart = Integer.MAX_VALUE;
+		int groupEnd = size;
+		while (groupEnd > 0) {
+			int groupStart = groupEnd - 1;
+			while (groupStart > 0 && occurrences.ends[groupStart - 1] == occurrences.ends[groupEnd - 1]) {
+				groupStart--;
 			}
-			if (!contained) filtered.add(candidate.id());
+
+			for (int i = groupStart; i < groupEnd; i++) {
+				int start = occurrences.starts[i];
+				// empty sentences are contained in any other match
+				boolean contained = start == occurrences.ends[i] ? minStart != Integer.MAX_VALUE : minStart <= start;
+				patternFlags[i] = ((long) occurrences.patterns[i] << 1) | (contained ? 1 : 0);
+				minStart = Math.min(minStart, start);
+			}
+			groupEnd = groupStart;
+		}
+
+		// a sentence is discarded if any of its occurrences is contained
+		Arrays.sort(patternFlags);
+		long[] kept = new long[size];
+		int keptCount = 0;
+		for (int i = 0; i < size; i++) {
+			int pattern = (int) (patternFlags[i] >>> 1);
+			if (i > 0 && (int) (patternFlags[i - 1] >>> 1) == pattern) continue;
+
+			int last = i;
+			while (last + 1 < size && (int) (patternFlags[last + 1] >>> 1) == pattern) last++;
+			if ((patternFlags[last] & 1) == 0) {
+				int length = normalizedContEditorialSentenceList.get(pattern).normalizedSentence().length();
+				kept[keptCount++] = ((long) (Integer.MAX_VALUE - length) << 32) | pattern;
+			}
+		}
+
+		// keep longest-first, ties in list order
+		Arrays.sort(kept, 0, keptCount);
+		List<Integer> filtered = new ArrayList<>(keptCount);
+		for (int i = 0; i < keptCount; i++) {
+			filtered.add(normalizedContEditorialSentenceList.get((int) kept[i]).id());
 		}
 
 		return filtered;
 	}
 
-	private void printSentenceRelationships(Integer libelleId, List<Integer> matchingIds, BufferedWriter writer) throws IOException {
-		for (Integer matchingId : matchingIds) {
-			synchronized (sentenceRelationshipLock) {
-				writer.write(libelleId + SEPARATOR + matchingId);
-				writer.newLine();
+	// Occurrences reported by the sentence automaton for one libelle, in report order
+	static final class SentenceOccurrences implements AhoCorasick.MatchHandler {
+		private int[] patterns = new int[16];
+		private int[] starts = new int[16];
+		private int[] ends = new int[16];
+		private int size;
+
+		@Override
+		public void onMatch(int patternIndex, int start, int end) {
+			if (size == patterns.length) {
+				patterns = Arrays.copyOf(patterns, size * 2);
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
 			}
+			patterns[size] = patternIndex;
+			starts[size] = start;
+			ends[size] = end;
+			size++;
+		}
+	}
+
+	private void printSentenceRelationships(Integer libelleId, List<Integer> matchingIds, RecordSink writer) {
+		for (Integer matchingId : matchingIds) {
+			writer.write(libelleId, matchingId);
 		}
 	}
 
 
 	/**
 	 * Generate relationships between BlocContenu entries and normalized libelle / normalized libelle extra entries,
-	 * exporting the relationships result to a csv file.
+	 * exporting the relationships result to a file in the rta.write.format: csv, gzipped csv or binary int triples.
 	 * csv file format: blocXmlId;libelleId;libelleExtraId
+	 * The phrases found in neither table are counted, and written once the job completed to bloc_contenu_not_found
+	 * with their number of occurrences and the lowest bloc id they appear in, most frequent first.
+	 * not found file format: count;first_bloc_id;phrase
+	 * A run that died or was cancelled is resumed after its last completed page. The not found phrases are appended to
+	 * an occurrences file checkpointed like the outputs, and only counted once the job completed: a resumed run keeps
+	 * the occurrences of the pages it had completed without scanning them again.
 	 */
-	public void generateBlocContenuRelationships() throws Exception {
-		Map<String, Integer> libelleMap = initializeLibelleMap();
-		Map<String, Integer> libelleExtraMap = initializeLibelleExtraMap();
-
-		Semaphore semaphore = new Semaphore(MAX_CONCURRENT_TASKS);
-
-		try (BufferedWriter writer = Files.newBufferedWriter(Path.of(BLOC_CONTENU_OUT), StandardOpenOption.CREATE,
-				StandardOpenOption.TRUNCATE_EXISTING);
-			 BufferedWriter writerNotFound = Files.newBufferedWriter(Path.of(BLOC_CONTENU_NOT_FOUND), StandardOpenOption.CREATE,
-					 StandardOpenOption.TRUNCATE_EXISTING)) {
-			int blocPageIndex = 0;
-			Page<BlocContenu> blocPage;
-
-			writer.write("blocXmlId;libelleId;libelleExtraId");
-			writer.newLine();
-
-			try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
-				do {
-					PageRequest pageable = PageRequest.of(blocPageIndex, SMALL_PAGE_SIZE, Sort.by("id"));
-					blocPage = blocContenuRepository.findAll(pageable);
-
-					for (BlocContenu b : blocPage.getContent()) {
-						semaphore.acquire();
-						executor.submit(() -> {
-							try {
-								List<String> parsedBlocXml = parseXml(b.getBlocxml());
+	public void generateBlocContenuRelationships(Shard shard, JobProgress progress) throws Exception {
+		generateBlocContenuRelationships(Path.of("."), shard, progress);
+	}
 
-								for (String phrase : parsedBlocXml) {
-									writeBlocContenuRelationship(b.getId(), phrase, writer, writerNotFound, libelleMap, libelleExtraMap);
+	// the outputs and the checkpoint in the given directory
+	void generateBlocContenuRelationships(Path directory, Shard shard, JobProgress progress) throws Exception {
+		// kept warm, or mapped from their snapshots, while the normalized tables are unchanged
+		BlocDictionaries dictionaries = new BlocDictionaries(libelleDictionary(), libelleExtraDictionary(),
+				properties.getFuzzy().isEnabled() ? fuzzyIndex() : null);
+
+		Timer pageFetch = metrics.pageFetch(PipelineMetrics.BLOC_CONTENU_RELATIONSHIPS);
+		AtomicInteger tasksInFlight = metrics.tasksInFlight(PipelineMetrics.BLOC_CONTENU_RELATIONSHIPS);
+		boolean ordered = properties.getWrite().isOrdered();
+		RecordFormat format = properties.getWrite().getFormat();
+		JobCheckpoint checkpoint = JobCheckpoint.load(directory.resolve(BLOC_CONTENU_CHECKPOINT + shard.suffix()
+				+ CHECKPOINT_EXTENSION));
+		if (!checkpoint.isEmpty() && !format.name().equals(checkpoint.get(FORMAT_KEY))) {
+			checkpoint.delete();
+		}
+		IdRange range = shardRange(checkpoint, PHASE_BLOC_CONTENU, shard, blocContenuRepository::findIdRange);
+		int afterId = checkpoint.get(LAST_ID_KEY) == null ? startAfter(range) : checkpoint.getInt(LAST_ID_KEY);
+		checkpoint.set(FORMAT_KEY, format);
+		progress.setTotalRows(blocContenuRepository.countByIdGreaterThanAndIdLessThanEqual(afterId, range.max()));
+		Path occurrences = directory.resolve(format.forText().fileName(BLOC_CONTENU_NOT_FOUND_OCCURRENCES
+				+ shard.suffix()));
+
+		try (CsvRecordWriter writer = openOutput(directory, BLOC_CONTENU_OUT + shard.suffix(), BLOC_CONTENU_HEADER, 3,
+				format, checkpoint);
+			 CsvRecordWriter writerNotFound = openOutput(directory, BLOC_CONTENU_NOT_FOUND_OCCURRENCES + shard.suffix(),
+					 BLOC_CONTENU_NOT_FOUND_OCCURRENCES_HEADER, 1, format.forText(), checkpoint);
+			 CsvRecordWriter writerFuzzy = dictionaries.fuzzy() == null ? null
+					 : openOutput(directory, BLOC_CONTENU_FUZZY + shard.suffix(), BLOC_CONTENU_FUZZY_HEADER, 1,
+					 format.forText(), checkpoint)) {
+			List<CsvRecordWriter> outputs = writerFuzzy == null ? List.of(writer, writerNotFound)
+					: List.of(writer, writerNotFound, writerFuzzy);
+
+			// the next page is fetched while this one is scanned
+			try (PageSource<BlocXmlDto> blocPages = PageSource.prefetch(properties.getRead(),
+					PageSource.openAfter(properties.getRead(), afterId,
+							(lastId, pageable) -> blocContenuRepository.findByIdGreaterThanAndIdLessThanEqual(lastId,
+									range.max(), pageable),
+							(lastId, fetchSize) -> blocContenuRepository.streamByIdGreaterThanAndIdLessThanEqual(lastId,
+									range.max(), fetchSize),
+							BlocXmlDto::id, SMALL_PAGE_SIZE),
+					b -> rowBytes(b.blocxml()))) {
+				List<BlocXmlDto> blocPage;
+				while (!(blocPage = pageFetch.record(blocPages::nextPage)).isEmpty()) {
+					progress.checkCancelled();
+					List<List<BlocXmlDto>> batches = scheduler.batches(blocPage);
+					List<Runnable> tasks = new ArrayList<>(batches.size());
+					// ordered output: the records of each batch, written in page order once the page completed
+					List<RecordBuffer> segments = ordered ? new ArrayList<>(batches.size()) : null;
+					List<RecordBuffer> fuzzySegments = ordered && writerFuzzy != null
+							? new ArrayList<>(batches.size()) : null;
+
+					for (List<BlocXmlDto> batch : batches) {
+						RecordSink sink = segmentOf(writer, segments);
+						RecordSink fuzzySink = segmentOf(writerFuzzy, fuzzySegments);
+						tasks.add(() -> {
+							tasksInFlight.incrementAndGet();
+							try {
+								for (BlocXmlDto b : batch) {
+									try {
+										metrics.blocScan().recordCallable(() -> {
+											forEachText(b.blocxml(), phrase -> writeBlocContenuRelationship(b.id(),
+													phrase, sink, writerNotFound, fuzzySink, dictionaries));
+											return null;
+										});
+									} catch (Exception e) {
+										e.printStackTrace();
+									}
 								}
-							} catch (Exception e) {
-								e.printStackTrace();
 							} finally {
-								semaphore.release();
+								tasksInFlight.decrementAndGet();
 							}
 						});
 					}
-					blocPageIndex++;
 
-				} while (blocPage.hasNext());
+					// the page is complete once all its blocs are written
+					scheduler.runAll(tasks);
+					if (ordered) {
+						for (int i = 0; i < segments.size(); i++) {
+							segments.get(i).drainTo(writer);
+							if (fuzzySegments != null) fuzzySegments.get(i).drainTo(writerFuzzy);
+						}
+					}
+					saveCheckpoint(checkpoint, PHASE_BLOC_CONTENU, blocPage.getLast().id(), outputs);
+					progress.addRowsProcessed(blocPage.size());
+				}
 			}
 		}
+
+		writeNotFoundReport(countNotFound(occurrences, format.forText()),
+				directory.resolve(format.forText().fileName(BLOC_CONTENU_NOT_FOUND + shard.suffix())), format.forText());
+		writeRange(directory, shard, format.fileName(BLOC_CONTENU_OUT + shard.suffix()), range);
+		writeRange(directory, shard, format.forText().fileName(BLOC_CONTENU_NOT_FOUND + shard.suffix()), range);
+		if (dictionaries.fuzzy() != null) {
+			writeRange(directory, shard, format.forText().fileName(BLOC_CONTENU_FUZZY + shard.suffix()), range);
+		}
+		checkpoint.delete();
+		Files.deleteIfExists(occurrences);
 	}
 
-	private Map<String, Integer> initializeLibelleMap() {
-		List<NormalizedLibelle> list = normalizedLibelleRepository.findAll();
-		Map<String, Integer> map = new HashMap<>(list.size());
-		for (NormalizedLibelle libelle : list) {
-			map.put(trimAndLowerCaseAndRemoveLineBreaks(libelle.getOriginalLibelle()), libelle.getId());
+	// Occurrence count and lowest bloc id of each phrase of an occurrences file, within rta.not-found.memory-budget-mb
+	private PhraseCounter countNotFound(Path occurrences, RecordFormat format) throws IOException {
+		RtaProperties.NotFound notFoundProperties = properties.getNotFound();
+		PhraseCounter notFound = new PhraseCounter(notFoundProperties.getMemoryBudgetMb() * 1024L * 1024L,
+				notFoundProperties.getSketchWidth(), notFoundProperties.getHeavyHitters());
+		InputStream in = Files.newInputStream(occurrences);
+		if (format == RecordFormat.CSV_GZIP) in = new GZIPInputStream(in);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			reader.readLine();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// blocXmlId;phrase, the phrase itself may hold separators
+				int separator = line.indexOf(SEPARATOR_CHAR);
+				notFound.add(line.substring(separator + 1), Integer.parseInt(line.substring(0, separator)));
+			}
 		}
+		return notFound;
+	}
 
-		return map;
+	// Most frequent first; past the memory budget, only the heavy hitters of the phrases counted after it are reported
+	private void writeNotFoundReport(PhraseCounter notFound, Path path, RecordFormat format) throws IOException {
+		try (CsvRecordWriter writer = new CsvRecordWriter(path, BLOC_CONTENU_NOT_FOUND_HEADER, 1, SEPARATOR_CHAR,
+				format)) {
+			metrics.watch(path.getFileName().toString(), writer);
+			for (PhraseCounter.Entry entry : notFound.entries()) {
+				writer.writeLine(entry.count() + SEPARATOR + entry.firstId() + SEPARATOR + entry.phrase());
+			}
+		}
 	}
 
-	private Map<String, Integer> initializeLibelleExtraMap() {
-		List<NormalizedLibelleExtra> list = normalizedLibelleExtraRepository.findAll();
-		Map<String, Integer> map = new HashMap<>(list.size());
-		for (NormalizedLibelleExtra libelle : list) {
-			map.put(trimAndLowerCaseAndRemoveLineBreaks(libelle.getOriginalLibelle()), libelle.getId());
+	// Original libelle (trimmed and lower-cased like the bloc phrases) to id, streamed from the table in id order: when
+	// two rows have the same libelle, the last one wins
+	private PhraseDictionary loadDictionary(IntFunction<Stream<OriginalLibelleDto>> streamer) {
+		PhraseDictionary.Builder builder = PhraseDictionary.builder();
+		try (Stream<OriginalLibelleDto> rows = streamer.apply(properties.getRead().getFetchSize())) {
+			rows.forEach(row -> {
+				String key = trimAndLowerCaseAndRemoveLineBreaks(row.originalLibelle());
+				// phrases are never null
+				if (key != null) {
+					builder.put(key, row.id());
+				}
+			});
 		}
 
-		return map;
+		return builder.build(properties.getDictionary().isOffHeap());
 	}
 
-	private void writeBlocContenuRelationship(Integer blocXmlId, String phrase, BufferedWriter writer, BufferedWriter writerNotFound,
-											  Map<String, Integer> libelleMap, Map<String, Integer> libelleExtraMap) throws Exception {
-		phrase = trimAndLowerCaseAndRemoveLineBreaks(phrase);
+	// Lookup structures of the bloc contenu job; fuzzy is null when the fallback is disabled
+	private record BlocDictionaries(PhraseDictionary libelles, PhraseDictionary libelleExtras,
+									EditDistanceIndex fuzzy) {
+	}
 
-		Integer libelleId = libelleMap.get(phrase);
-		if (libelleId != null) {
-			synchronized (blocContenuLock) {
-				writer.write(blocXmlId + SEPARATOR + libelleId + SEPARATOR);
-				writer.newLine();
+	// Sentences of at least wordCount words and their automaton
+	private record SentenceIndex(List<NormalizedSentenceDto> sentences, AhoCorasick automaton) {
+		long memoryBytes() {
+			long bytes = automaton.memoryBytes();
+			for (NormalizedSentenceDto sentence : sentences) {
+				bytes += rowBytes(sentence.normalizedSentence());
 			}
+			return bytes;
+		}
+	}
+
+	private SentenceIndex loadSentenceIndex(int wordCount) {
+		List<NormalizedSentenceDto> sentences = snapshots.sentences(wordCount,
+				() -> normalizedContEditorialSentenceRepository.findIdAndSentenceWithWordCountGreaterThanEqual(wordCount));
+		return new SentenceIndex(sentences, new AhoCorasick(sentences.stream()
+				.map(NormalizedSentenceDto::normalizedSentence)
+				.toList()));
+	}
+
+	private PhraseDictionary libelleDictionary() {
+		return dictionaryCache.get(NormalizedTable.LIBELLE.getTableName(), List.of(NormalizedTable.LIBELLE),
+				() -> snapshots.phraseDictionary(NormalizedTable.LIBELLE,
+						() -> loadDictionary(normalizedLibelleRepository::streamOriginalLibelles)),
+				PhraseDictionary::memoryBytes);
+	}
+
+	private PhraseDictionary libelleExtraDictionary() {
+		return dictionaryCache.get(NormalizedTable.LIBELLE_EXTRA.getTableName(),
+				List.of(NormalizedTable.LIBELLE_EXTRA),
+				() -> snapshots.phraseDictionary(NormalizedTable.LIBELLE_EXTRA,
+						() -> loadDictionary(normalizedLibelleExtraRepository::streamOriginalLibelles)),
+				PhraseDictionary::memoryBytes);
+	}
+
+	private EditDistanceIndex fuzzyIndex() {
+		int maxDistance = properties.getFuzzy().getMaxDistance();
+		return dictionaryCache.get(FUZZY_CACHE_KEY + maxDistance,
+				List.of(NormalizedTable.LIBELLE, NormalizedTable.LIBELLE_EXTRA),
+				() -> buildFuzzyIndex(libelleDictionary(), libelleExtraDictionary(), maxDistance),
+				EditDistanceIndex::memoryBytes);
+	}
+
+	// Keys of both dictionaries, libelles first so that they win ties like they win exact lookups
+	private static EditDistanceIndex buildFuzzyIndex(PhraseDictionary libelleDictionary,
+													 PhraseDictionary libelleExtraDictionary, int maxDistance) {
+		EditDistanceIndex.Builder builder = EditDistanceIndex.builder(maxDistance);
+		libelleDictionary.forEach((key, id) -> builder.add(key, id, LIBELLE_TAG));
+		libelleExtraDictionary.forEach((key, id) -> builder.add(key, id, LIBELLE_EXTRA_TAG));
+		return builder.build();
+	}
+
+	private void writeBlocContenuRelationship(Integer blocXmlId, String phrase, RecordSink writer,
+											  RecordSink writerNotFound, RecordSink writerFuzzy,
+											  BlocDictionaries dictionaries) {
+		phrase = trimAndLowerCaseAndRemoveLineBreaks(phrase);
+
+		int libelleId = dictionaries.libelles().get(phrase, NO_ID);
+		if (libelleId != NO_ID) {
+			writer.write(blocXmlId, libelleId, CsvRecordWriter.EMPTY);
+			metrics.libellePhrases().increment();
 			return;
 		}
 
-		libelleId = libelleExtraMap.get(phrase);
-		if (libelleId != null) {
-			synchronized (blocContenuLock) {
-				writer.write(blocXmlId + SEPARATOR + SEPARATOR + libelleId);
-				writer.newLine();
-			}
+		libelleId = dictionaries.libelleExtras().get(phrase, NO_ID);
+		if (libelleId != NO_ID) {
+			writer.write(blocXmlId, CsvRecordWriter.EMPTY, libelleId);
+			metrics.libelleExtraPhrases().increment();
 			return;
 		}
 
-		// not found in either
-		synchronized (blocContenuNotFoundLock) {
-			writerNotFound.write(phrase);
-			writerNotFound.newLine();
+		// nearest libelle or libelle extra within the allowed distance, if any
+		if (dictionaries.fuzzy() != null) {
+			EditDistanceIndex.Match match = findNearest(phrase, dictionaries.fuzzy());
+			if (match != null) {
+				String id = Integer.toString(match.value());
+				writerFuzzy.writeLine(blocXmlId + SEPARATOR + (match.tag() == LIBELLE_TAG ? id : "") + SEPARATOR
+						+ (match.tag() == LIBELLE_EXTRA_TAG ? id : "") + SEPARATOR + match.distance() + SEPARATOR
+						+ phrase);
+				metrics.fuzzyPhrases().increment();
+				return;
+			}
 		}
+
+		// not found in either
+		writerNotFound.writeLine(blocXmlId + SEPARATOR + phrase);
+		metrics.notFoundPhrases().increment();
 	}
-}
 
+	// within rta.fuzzy.max-distance edits, and one edit per rta.fuzzy.chars-per-edit chars of the phrase
+	private EditDistanceIndex.Match findNearest(String phrase, EditDistanceIndex fuzzyIndex) {
+		RtaProperties.Fuzzy fuzzy = properties.getFuzzy();
+		int distance = Math.min(fuzzy.getMaxDistance(), phrase.length() / fuzzy.getCharsPerEdit());
+		return fuzzyIndex.findNearest(phrase, distance);
+	}
+}
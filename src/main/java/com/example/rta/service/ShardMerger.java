@@ -0,0 +1,253 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import com.example.rta.dto.IdRange;
+import org.springframework.stereotype.Service;
+import util.CsvRecordWriter;
+import util.PhraseCounter;
+import util.RecordFormat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.example.rta.service.ReportService.*;
+import static util.Constants.SEPARATOR;
+import static util.Constants.SEPARATOR_CHAR;
+
+/**
+ * Combines the outputs written by the shards of the relationship jobs, each under its own suffix, into the outputs a
+ * single run would have written. The shards of an output are either all the index-th of the same count, or explicit
+ * id ranges; they are concatenated in id order, without the repeated csv headers. The not found reports are summed by
+ * phrase, within the rta.not-found memory budget like the report of a single run. The shard files are left in place.
+ * Each shard records next to its outputs the id range it resolved: the ranges of an output must follow each other
+ * without overlap nor gap, and those of index shards must cover every id. Refuses to run otherwise, or while a shard
+ * checkpoint remains, as that shard did not complete.
+ */
+@Service
+public class ShardMerger {
+	private static final Pattern INDEX_SHARD = Pattern.compile("shard-(\\d+)-of-(\\d+)");
+	private static final Pattern ID_SHARD = Pattern.compile("ids-(-?\\d+)-(-?\\d+)");
+	private static final String SHARD_GLOB = ".{shard,ids}-*";
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+
+	private final RtaProperties properties;
+
+	ShardMerger(RtaProperties properties) {
+		this.properties = properties;
+	}
+
+	// a shard file, the id range it covers, and the count of its index shards (0 for an id range)
+	private record ShardFile(Path path, IdRange range, int count) {
+	}
+
+	// a merged output and its shards
+	private record Merge(Path target, RecordFormat format, List<ShardFile> shards) {
+	}
+
+	public void mergeShards(JobProgress progress) {
+		mergeShards(Path.of("."), progress);
+	}
+
+	// the shard files of the given directory
+	void mergeShards(Path directory, JobProgress progress) {
+		RecordFormat format = properties.getWrite().getFormat();
+		try {
+			List<Path> pending = list(directory, "*" + SHARD_GLOB + CHECKPOINT_EXTENSION);
+			if (!pending.isEmpty()) {
+				throw new IllegalStateException("Shards not completed: " + pending);
+			}
+
+			List<Merge> merges = new ArrayList<>();
+			for (String name : List.of(LIBELLE_MATCHES_OUT, LIBELLE_EXTRA_MATCHES_OUT, BLOC_CONTENU_OUT)) {
+				merges.add(new Merge(directory.resolve(format.fileName(name)), format, shardFiles(directory, name, format)));
+			}
+			merges.add(new Merge(directory.resolve(format.forText().fileName(BLOC_CONTENU_FUZZY)), format.forText(),
+					shardFiles(directory, BLOC_CONTENU_FUZZY, format.forText())));
+			List<ShardFile> notFound = shardFiles(directory, BLOC_CONTENU_NOT_FOUND, format.forText());
+			progress.setTotalRows(merges.stream().mapToInt(merge -> merge.shards().size()).sum() + notFound.size());
+
+			for (Merge merge : merges) {
+				if (merge.shards().isEmpty()) continue;
+
+				// replaced at once, so that a cancelled or failed merge leaves the former output
+				Path temporary = merge.target().resolveSibling(merge.target().getFileName() + ".tmp");
+				try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+					for (ShardFile shard : merge.shards()) {
+						progress.checkCancelled();
+						append(shard.path(), out, shard == merge.shards().getFirst(), merge.format());
+						progress.addRowsProcessed(1);
+					}
+					out.force(true);
+				}
+				Files.move(temporary, merge.target(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+
+			if (!notFound.isEmpty()) {
+				mergeNotFound(notFound, directory.resolve(format.forText().fileName(BLOC_CONTENU_NOT_FOUND)),
+						format.forText(), progress);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Error merging shards", e);
+		}
+	}
+
+	// Shard files of an output, in id order
+	private static List<ShardFile> shardFiles(Path directory, String name, RecordFormat format) throws IOException {
+		String extension = format.fileName("");
+		List<ShardFile> files = new ArrayList<>();
+		for (Path path : list(directory, name + SHARD_GLOB + extension)) {
+			String fileName = path.getFileName().toString();
+			String suffix = fileName.substring(name.length() + 1, fileName.length() - extension.length());
+			Matcher index = INDEX_SHARD.matcher(suffix);
+			int count;
+			if (index.matches()) {
+				count = Integer.parseInt(index.group(2));
+			} else if (ID_SHARD.matcher(suffix).matches()) {
+				count = 0;
+			} else {
+				throw new IllegalStateException("Unexpected shard file " + path);
+			}
+			files.add(new ShardFile(path, readRange(path), count));
+		}
+		files.sort(Comparator.comparingInt(file -> file.range().min()));
+
+		if (files.stream().mapToInt(ShardFile::count).distinct().count() > 1) {
+			throw new IllegalStateException("Shards of " + name + " split differently: " + files);
+		}
+		int count = files.isEmpty() ? 0 : files.getFirst().count();
+		if (count > 0 && files.size() != count) {
+			throw new IllegalStateException("Missing shards of " + name + ": " + files.size() + " of " + count);
+		}
+		if (count > 0 && (files.getFirst().range().min() != Integer.MIN_VALUE
+				|| files.getLast().range().max() != Integer.MAX_VALUE)) {
+			throw new IllegalStateException("Shards of " + name + " do not cover every id: " + files);
+		}
+		for (int i = 1; i < files.size(); i++) {
+			// an empty range ends right before it starts
+			long expected = files.get(i - 1).range().max() + 1L;
+			if (files.get(i).range().min() != expected) {
+				throw new IllegalStateException((files.get(i).range().min() < expected ? "Overlapping" : "Gap between")
+						+ " shards of " + name + ": " + files.get(i - 1) + ", " + files.get(i));
+			}
+		}
+		return files;
+	}
+
+	// The id range recorded by the shard once it completed
+	private static IdRange readRange(Path path) throws IOException {
+		Path rangeFile = path.resolveSibling(path.getFileName() + RANGE_EXTENSION);
+		if (!Files.exists(rangeFile)) {
+			throw new IllegalStateException("No id range recorded for " + path);
+		}
+		String range = Files.readString(rangeFile).trim();
+		int separator = range.indexOf(SEPARATOR_CHAR);
+		return new IdRange(Integer.parseInt(range.substring(0, separator)),
+				Integer.parseInt(range.substring(separator + 1)));
+	}
+
+	private static List<Path> list(Path directory, String glob) throws IOException {
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+			stream.forEach(paths::add);
+		}
+		return paths;
+	}
+
+	// Copy a shard file to the end of the merged output; only the first one keeps its header
+	private static void append(Path path, FileChannel out, boolean first, RecordFormat format) throws IOException {
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (first) {
+				transfer(in, 0, out);
+				return;
+			}
+
+			switch (format) {
+				case CSV -> transfer(in, headerLineBytes(in), out);
+				case BINARY -> transfer(in, RecordFormat.BINARY_HEADER_BYTES, out);
+				// a gzip file is a sequence of members: the rest of the shard becomes one more member
+				case CSV_GZIP -> {
+					try (InputStream text = new GZIPInputStream(Channels.newInputStream(in), IO_BUFFER_SIZE)) {
+						skipLine(text);
+						GZIPOutputStream member = new GZIPOutputStream(Channels.newOutputStream(out), IO_BUFFER_SIZE);
+						text.transferTo(member);
+						member.finish();
+					}
+				}
+			}
+		}
+	}
+
+	private static void transfer(FileChannel in, long position, FileChannel out) throws IOException {
+		long size = in.size();
+		while (position < size) {
+			position += in.transferTo(position, size - position, out);
+		}
+	}
+
+	private static long headerLineBytes(FileChannel in) throws IOException {
+		return skipLine(Channels.newInputStream(in.position(0)));
+	}
+
+	// Consume the first line of a stream, its line break included, returning its length in bytes
+	private static long skipLine(InputStream in) throws IOException {
+		long length = 0;
+		int b;
+		while ((b = in.read()) != -1) {
+			length++;
+			if (b == '\n') break;
+		}
+		return length;
+	}
+
+	// Sum of the counts and lowest first id of each phrase over the shard reports, most frequent first; past the memory
+	// budget, only the heavy hitters of the phrases counted after it are reported
+	private void mergeNotFound(List<ShardFile> files, Path target, RecordFormat format, JobProgress progress)
+			throws IOException {
+		RtaProperties.NotFound notFoundProperties = properties.getNotFound();
+		PhraseCounter phrases = new PhraseCounter(notFoundProperties.getMemoryBudgetMb() * 1024L * 1024L,
+				notFoundProperties.getSketchWidth(), notFoundProperties.getHeavyHitters());
+		for (ShardFile file : files) {
+			progress.checkCancelled();
+			InputStream in = Files.newInputStream(file.path());
+			if (format == RecordFormat.CSV_GZIP) in = new GZIPInputStream(in, IO_BUFFER_SIZE);
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+				reader.readLine();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					// count;first_bloc_id;phrase, the phrase itself may hold separators
+					int countSeparator = line.indexOf(SEPARATOR_CHAR);
+					int idSeparator = line.indexOf(SEPARATOR_CHAR, countSeparator + 1);
+					phrases.add(line.substring(idSeparator + 1), Long.parseLong(line.substring(0, countSeparator)),
+							Integer.parseInt(line.substring(countSeparator + 1, idSeparator)));
+				}
+			}
+			progress.addRowsProcessed(1);
+		}
+
+		try (CsvRecordWriter writer = new CsvRecordWriter(target, BLOC_CONTENU_NOT_FOUND_HEADER, 1, SEPARATOR_CHAR,
+				format)) {
+			for (PhraseCounter.Entry entry : phrases.entries()) {
+				writer.writeLine(entry.count() + SEPARATOR + entry.firstId() + SEPARATOR + entry.phrase());
+			}
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Multi-pattern substring matcher (Aho-Corasick automaton).
+ * The automaton is compiled once from a list of patterns and is immutable afterwards, so a single instance can be
+ * shared by every worker thread. Each call to {@link #findMatches(CharSequence, MatchHandler)} scans the text once,
+ * in time linear in the text length plus the number of reported occurrences.
+ */
+public class AhoCorasick {
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+	private static final long EMPTY_KEY = -1L;
+
+	// root transitions are dense (one slot per char, 0 meaning "stay at root"), the others live in a hash table
+	private final int[] rootTransitions = new int[Character.MAX_VALUE + 1];
+	private final long[] transitionKeys;
+	private final int[] transitionValues;
+	private final int transitionMask;
+
+	private final int[] fail;
+	// length of the string spelled by each node, i.e. the length of the pattern ending there
+	private final int[] depth;
+	// lowest pattern index ending at each node, or NONE
+	private final int[] firstPattern;
+	// nearest node on the fail chain that ends a pattern (dictionary suffix link), or NONE
+	private final int[] outputLink;
+	// identical patterns ending at the same node, chained in index order
+	private final int[] nextSamePattern;
+	// patterns equal to the empty string: String.contains("") is true for any text
+	private final int[] emptyPatterns;
+
+	private final int patternCount;
+	private int nodeCount;
+
+	/**
+	 * Compile the automaton. Pattern indexes reported by the matcher are indexes in {@code patterns};
+	 * null patterns never match.
+	 */
+	public AhoCorasick(List<String> patterns) {
+		this.patternCount = patterns.size();
+
+		int maxNodes = 1;
+		for (String p : patterns) {
+			if (p != null) maxNodes += p.length();
+		}
+
+		int tableSize = Integer.highestOneBit(Math.max(2, maxNodes * 4 / 3)) << 1;
+		transitionKeys = new long[tableSize];
+		transitionValues = new int[tableSize];
+		transitionMask = tableSize - 1;
+		Arrays.fill(transitionKeys, EMPTY_KEY);
+
+		int[] parent = new int[maxNodes];
+		char[] incoming = new char[maxNodes];
+		depth = new int[maxNodes];
+		firstPattern = new int[maxNodes];
+		Arrays.fill(firstPattern, NONE);
+		nextSamePattern = new int[patternCount];
+		Arrays.fill(nextSamePattern, NONE);
+		nodeCount = 1;
+
+		int emptyCount = 0;
+		int[] empties = new int[patternCount];
+		int maxDepth = 0;
+
+		// build the trie
+		for (int index = 0; index < patternCount; index++) {
+			String pattern = patterns.get(index);
+			if (pattern == null) continue;
+			if (pattern.isEmpty()) {
+				empties[emptyCount++] = index;
+				continue;
+			}
+
+			int node = ROOT;
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				int next = transition(node, c);
+				if (next == NONE) {
+					next = nodeCount++;
+					parent[next] = node;
+					incoming[next] = c;
+					depth[next] = depth[node] + 1;
+					addTransition(node, c, next);
+				}
+				node = next;
+			}
+			maxDepth = Math.max(maxDepth, depth[node]);
+			appendPattern(node, index);
+		}
+		emptyPatterns = Arrays.copyOf(empties, emptyCount);
+
+		// order nodes by depth (counting sort) so that parents get their fail link before their children
+		int[] depthStart = new int[maxDepth + 2];
+		for (int node = 1; node < nodeCount; node++) depthStart[depth[node] + 1]++;
+		for (int d = 1; d < depthStart.length; d++) depthStart[d] += depthStart[d - 1];
+		int[] byDepth = new int[nodeCount];
+		for (int node = 1; node < nodeCount; node++) byDepth[depthStart[depth[node]]++] = node;
+
+		fail = new int[nodeCount];
+		outputLink = new int[nodeCount];
+		outputLink[ROOT] = NONE;
+
+		for (int i = 0; i < nodeCount - 1; i++) {
+			int node = byDepth[i];
+			int p = parent[node];
+			char c = incoming[node];
+
+			int f = ROOT;
+			if (p != ROOT) {
+				f = fail[p];
+				int next;
+				while ((next = transition(f, c)) == NONE && f != ROOT) {
+					f = fail[f];
+				}
+				f = next == NONE ? ROOT : next;
+			}
+			fail[node] = f;
+			outputLink[node] = (f != ROOT && firstPattern[f] != NONE) ? f : outputLink[f];
+		}
+	}
+
+	/**
+	 * @return number of patterns the automaton was compiled from
+	 */
+	public int patternCount() {
+		return patternCount;
+	}
+
+	/**
+	 * Estimated heap held by the automaton.
+	 */
+	public long memoryBytes() {
+		return (long) Integer.BYTES * (rootTransitions.length + transitionValues.length + fail.length + depth.length
+				+ firstPattern.length + outputLink.length + nextSamePattern.length + emptyPatterns.length)
+				+ (long) Long.BYTES * transitionKeys.length;
+	}
+
+	/**
+	 * Scan the text once and report every occurrence of every pattern to the handler, as [start, end) char offsets.
+	 * Occurrences are reported by increasing end offset; occurrences sharing the same end offset are reported
+	 * longest first, and identical patterns in index order. Empty patterns are reported once, at offset 0,
+	 * before anything else.
+	 */
+	public void findMatches(CharSequence text, MatchHandler handler) {
+		for (int empty : emptyPatterns) {
+			handler.onMatch(empty, 0, 0);
+		}
+
+		int state = ROOT;
+		for (int i = 0; i < text.length(); i++) {
+			state = step(state, text.charAt(i));
+
+			int out = firstPattern[state] != NONE ? state : outputLink[state];
+			for (; out != NONE; out = outputLink[out]) {
+				for (int index = firstPattern[out]; index != NONE; index = nextSamePattern[index]) {
+					handler.onMatch(index, i + 1 - depth[out], i + 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Receives the pattern occurrences found by {@link #findMatches(CharSequence, MatchHandler)}.
+	 */
+	@FunctionalInterface
+	public interface MatchHandler {
+		void onMatch(int patternIndex, int start, int end);
+	}
+
+	private int step(int state, char c) {
+		int next;
+		while ((next = transition(state, c)) == NONE && state != ROOT) {
+			state = fail[state];
+		}
+		return next == NONE ? ROOT : next;
+	}
+
+	private int transition(int node, char c) {
+		if (node == ROOT) {
+			int next = rootTransitions[c];
+			return next == ROOT ? NONE : next;
+		}
+
+		long key = key(node, c);
+		for (int slot = hash(key); ; slot = (slot + 1) & transitionMask) {
+			long k = transitionKeys[slot];
+			if (k == key) return transitionValues[slot];
+			if (k == EMPTY_KEY) return NONE;
+		}
+	}
+
+	private void addTransition(int node, char c, int next) {
+		if (node == ROOT) {
+			rootTransitions[c] = next;
+			return;
+		}
+
+		long key = key(node, c);
+		int slot = hash(key);
+		while (transitionKeys[slot] != EMPTY_KEY) {
+			slot = (slot + 1) & transitionMask;
+		}
+		transitionKeys[slot] = key;
+		transitionValues[slot] = next;
+	}
+
+	private void appendPattern(int node, int index) {
+		if (firstPattern[node] == NONE) {
+			firstPattern[node] = index;
+			return;
+		}
+
+		int last = firstPattern[node];
+		while (nextSamePattern[last] != NONE) {
+			last = nextSamePattern[last];
+		}
+		nextSamePattern[last] = index;
+	}
+
+	private static long key(int node, char c) {
+		return ((long) node << 16) | c;
+	}
+
+	private int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & transitionMask;
+	}
+}
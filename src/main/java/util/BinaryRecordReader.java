@@ -0,0 +1,90 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records of a file written by {@link CsvRecordWriter} in the {@link RecordFormat#BINARY} format, read in place from
+ * a memory mapping. The file is mapped by segments of whole records, so it may exceed 2 GB. A column written as
+ * {@link CsvRecordWriter#EMPTY} reads as EMPTY. Safe to share between threads once opened.
+ */
+public final class BinaryRecordReader implements AutoCloseable {
+	// records of a segment, so that a segment stays under 2 GB whatever the number of columns
+	private static final int SEGMENT_RECORDS = 1 << 26;
+
+	private final FileChannel channel;
+	private final int columns;
+	private final long size;
+	private final IntBuffer[] segments;
+
+	private BinaryRecordReader(FileChannel channel, int columns, long size, IntBuffer[] segments) {
+		this.channel = channel;
+		this.columns = columns;
+		this.size = size;
+		this.segments = segments;
+	}
+
+	public static BinaryRecordReader open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size() < RecordFormat.BINARY_HEADER_BYTES) {
+				throw new IOException("Not a binary record file: " + path);
+			}
+			IntBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, RecordFormat.BINARY_HEADER_BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			if (header.get(0) != RecordFormat.BINARY_MAGIC) throw new IOException("Not a binary record file: " + path);
+			if (header.get(1) != RecordFormat.BINARY_VERSION) {
+				throw new IOException("Unsupported binary record file version " + header.get(1) + ": " + path);
+			}
+
+			int columns = header.get(2);
+			long recordBytes = (long) columns * Integer.BYTES;
+			// a partial record at the end, from a crashed writer, is left out
+			long size = (channel.size() - RecordFormat.BINARY_HEADER_BYTES) / recordBytes;
+
+			IntBuffer[] segments = new IntBuffer[(int) ((size + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS)];
+			for (int i = 0; i < segments.length; i++) {
+				long first = (long) i * SEGMENT_RECORDS;
+				long records = Math.min(SEGMENT_RECORDS, size - first);
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+						RecordFormat.BINARY_HEADER_BYTES + first * recordBytes, records * recordBytes);
+				segments[i] = mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			}
+			return new BinaryRecordReader(channel, columns, size, segments);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public int columns() {
+		return columns;
+	}
+
+	/**
+	 * Number of records.
+	 */
+	public long size() {
+		return size;
+	}
+
+	public int get(long record, int column) {
+		if (record < 0 || record >= size) throw new IndexOutOfBoundsException("record " + record + " of " + size);
+		if (column < 0 || column >= columns) throw new IndexOutOfBoundsException("column " + column + " of " + columns);
+
+		return segments[(int) (record / SEGMENT_RECORDS)].get((int) (record % SEGMENT_RECORDS) * columns + column);
+	}
+
+	/**
+	 * Close the file; the mappings stay readable until they are garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
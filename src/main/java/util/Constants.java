@@ -4,4 +4,7 @@ public class Constants {
 	public static final Integer PAGE_SIZE = 35000;
 	public static final Integer SMALL_PAGE_SIZE = 10000;
 	public static final String SEPARATOR = ";";
+	public static final char SEPARATOR_CHAR = ';';
+	// keyset pagination starts strictly after this id
+	public static final Integer KEYSET_START_ID = Integer.MIN_VALUE;
 }
@@ -0,0 +1,402 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Single-writer CSV output stage. Any number of producer threads push records of int columns (or whole text lines)
+ * into a lock-free multi-producer ring buffer; one writer thread encodes them straight into a reusable byte buffer
+ * and writes it through a {@link FileChannel}. Producers never take a lock: they only block, by parking, when the
+ * ring is full. Once idle, the writer thread spins briefly then parks until a producer publishes the next record, so
+ * that an open writer with nothing to write costs no CPU.
+ * Lines are written in the order their slots were claimed, each one terminated by the system line separator, or as
+ * gzip-compressed csv or fixed-width binary records depending on the {@link RecordFormat}.
+ * {@link #sync()} gives the offset up to which the file is complete, from which a later run can resume it.
+ */
+public class CsvRecordWriter implements RecordSink, AutoCloseable {
+	/**
+	 * Column value written as an empty field.
+	 */
+	public static final int EMPTY = Integer.MIN_VALUE;
+
+	private static final int CAPACITY = 1 << 16;
+	private static final int MASK = CAPACITY - 1;
+	private static final int FIELDS = 3;
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+	private final Path path;
+	private final int columns;
+	private final byte separator;
+	private final RecordFormat format;
+	private final FileChannel channel;
+
+	// ring slots: FIELDS ints, a text line or a sync barrier each; published[slot] holds sequence + 1 once the slot is
+	// readable
+	private final int[] fields = new int[CAPACITY * FIELDS];
+	private final Object[] payloads = new Object[CAPACITY];
+	private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+	private final AtomicLong claimed = new AtomicLong();
+	private final AtomicLong consumed = new AtomicLong();
+	// time producers spent waiting for a free slot
+	private final LongAdder waitNanos = new LongAdder();
+
+	// writer thread state
+	private final ByteBuffer out = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+	private final byte[] digits = new byte[11];
+	private final OutputStream channelStream;
+	// member being compressed, started by the first flush after a sync
+	private GZIPOutputStream gzip;
+	private byte[] gzipInput;
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final Thread writerThread;
+
+	private volatile boolean closing;
+	// set by the writer thread before it parks for want of records, so that the next producer unparks it
+	private volatile boolean writerParked;
+	private volatile IOException failure;
+
+	/**
+	 * Create (or truncate) the file, write the header line and start the writer thread.
+	 *
+	 * @param columns number of int columns of each record, at most 3
+	 */
+	public CsvRecordWriter(Path path, String header, int columns, char separator) throws IOException {
+		this(path, header, columns, separator, RecordFormat.CSV, -1);
+	}
+
+	/**
+	 * Create (or truncate) a file of the given format. A binary file starts with its own header instead of the csv
+	 * one.
+	 */
+	public CsvRecordWriter(Path path, String header, int columns, char separator, RecordFormat format)
+			throws IOException {
+		this(path, header, columns, separator, format, -1);
+	}
+
+	/**
+	 * Reopen a file written by a former writer, cut at an offset returned by its {@link #sync()}: the lines written
+	 * after it are dropped and the new records are appended from there.
+	 */
+	public static CsvRecordWriter resume(Path path, int columns, char separator, long offset) throws IOException {
+		return new CsvRecordWriter(path, null, columns, separator, RecordFormat.CSV, offset);
+	}
+
+	public static CsvRecordWriter resume(Path path, int columns, char separator, RecordFormat format, long offset)
+			throws IOException {
+		return new CsvRecordWriter(path, null, columns, separator, format, offset);
+	}
+
+	private CsvRecordWriter(Path path, String header, int columns, char separator, RecordFormat format,
+							long resumeOffset) throws IOException {
+		if (columns < 1 || columns > FIELDS) throw new IllegalArgumentException("columns must be between 1 and " + FIELDS);
+
+		this.path = path;
+		this.columns = columns;
+		this.separator = (byte) separator;
+		this.format = format;
+
+		if (format == RecordFormat.BINARY) {
+			out.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (resumeOffset < 0) {
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		} else {
+			this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+			if (channel.size() < resumeOffset) {
+				channel.close();
+				throw new IOException("Cannot resume " + path + " at " + resumeOffset + ": the file is shorter");
+			}
+			channel.truncate(resumeOffset);
+			channel.position(resumeOffset);
+		}
+		this.channelStream = Channels.newOutputStream(channel);
+
+		if (resumeOffset < 0 && format == RecordFormat.BINARY) {
+			out.putInt(RecordFormat.BINARY_MAGIC).putInt(RecordFormat.BINARY_VERSION).putInt(columns).putInt(0);
+		} else if (resumeOffset < 0 && header != null) {
+			encodeText(header);
+		}
+
+		this.writerThread = Thread.ofPlatform().name("csv-writer-" + path.getFileName()).start(this::drain);
+	}
+
+	@Override
+	public void write(int first, int second) {
+		write(first, second, EMPTY, null);
+	}
+
+	@Override
+	public void write(int first, int second, int third) {
+		write(first, second, third, null);
+	}
+
+	@Override
+	public void writeLine(String text) {
+		if (format == RecordFormat.BINARY) throw new IllegalStateException("No text line in a binary file: " + path);
+		write(EMPTY, EMPTY, EMPTY, text);
+	}
+
+	/**
+	 * Wait until every record pushed before the call is written and forced to the storage device.
+	 *
+	 * @return the size of the file at that point
+	 */
+	public long sync() throws IOException {
+		CompletableFuture<Long> synced = new CompletableFuture<>();
+		write(EMPTY, EMPTY, EMPTY, synced);
+
+		try {
+			return synced.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while syncing the csv writer", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to sync the csv writer", e.getCause());
+		}
+	}
+
+	/**
+	 * Records pushed and not yet written.
+	 */
+	public long getBacklog() {
+		return Math.max(claimed.get() - consumed.get(), 0);
+	}
+
+	/**
+	 * Total time producers waited for the writer thread because the ring buffer was full.
+	 */
+	public long getWaitNanos() {
+		return waitNanos.sum();
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	private void write(int first, int second, int third, Object payload) {
+		throwIfFailed();
+		long sequence = claimed.getAndIncrement();
+
+		// backpressure: wait for the writer to free the slot
+		if (sequence - consumed.get() >= CAPACITY) {
+			long waitStart = System.nanoTime();
+			for (int spins = 0; sequence - consumed.get() >= CAPACITY; spins++) {
+				throwIfFailed();
+				if (spins < 100) {
+					Thread.onSpinWait();
+				} else {
+					LockSupport.parkNanos(50_000);
+				}
+			}
+			waitNanos.add(System.nanoTime() - waitStart);
+		}
+
+		int slot = (int) (sequence & MASK);
+		fields[slot * FIELDS] = first;
+		fields[slot * FIELDS + 1] = second;
+		fields[slot * FIELDS + 2] = third;
+		payloads[slot] = payload;
+		published.set(slot, sequence + 1);
+		if (writerParked) LockSupport.unpark(writerThread);
+	}
+
+	/**
+	 * Wait for every pushed record to be written, then close the file. Producers must have stopped pushing.
+	 */
+	@Override
+	public void close() throws IOException {
+		closing = true;
+		LockSupport.unpark(writerThread);
+
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing the csv writer", e);
+		} finally {
+			channel.close();
+		}
+
+		if (failure != null) throw failure;
+	}
+
+	private void throwIfFailed() {
+		if (failure != null) throw new UncheckedIOException(failure);
+	}
+
+	// Writer thread: consume the slots in sequence order until closed and drained
+	private void drain() {
+		long next = 0;
+		int idle = 0;
+
+		while (true) {
+			int slot = (int) (next & MASK);
+
+			if (published.get(slot) == next + 1) {
+				if (failure == null) {
+					try {
+						encodeSlot(slot);
+					} catch (IOException e) {
+						// keep consuming so that producers never wait forever; they see the failure on their next push
+						failure = e;
+					} catch (RuntimeException e) {
+						failure = new IOException(e);
+					}
+				}
+				if (failure != null && payloads[slot] instanceof CompletableFuture<?> synced) {
+					synced.completeExceptionally(failure);
+				}
+				payloads[slot] = null;
+				consumed.lazySet(++next);
+				idle = 0;
+				continue;
+			}
+
+			// after a failure, a producer may have claimed a slot it will never publish
+			if (closing && (claimed.get() == next || failure != null)) break;
+
+			if (idle++ < 100) {
+				Thread.onSpinWait();
+			} else {
+				// checked again once the flag is visible: a producer publishing meanwhile either is seen here or
+				// sees the flag and unparks; close() always unparks
+				writerParked = true;
+				if (published.get(slot) != next + 1) {
+					LockSupport.park(this);
+				}
+				writerParked = false;
+			}
+		}
+
+		if (failure == null) {
+			try {
+				flush();
+				finishGzipMember();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+	}
+
+	private void encodeSlot(int slot) throws IOException {
+		Object payload = payloads[slot];
+		if (payload instanceof String text) {
+			encodeText(text);
+			return;
+		}
+		if (payload instanceof CompletableFuture<?> barrier) {
+			@SuppressWarnings("unchecked")
+			CompletableFuture<Long> synced = (CompletableFuture<Long>) barrier;
+			// a gzip member ends at each sync, so that the file can be cut there
+			flush();
+			finishGzipMember();
+			channel.force(false);
+			synced.complete(channel.position());
+			return;
+		}
+
+		int base = slot * FIELDS;
+		if (format == RecordFormat.BINARY) {
+			if (out.remaining() < FIELDS * Integer.BYTES) flush();
+			for (int column = 0; column < columns; column++) {
+				out.putInt(fields[base + column]);
+			}
+			return;
+		}
+
+		// a record is at most 3 * 11 digits, 2 separators and the line separator
+		if (out.remaining() < FIELDS * digits.length + FIELDS + LINE_SEPARATOR.length) flush();
+
+		for (int column = 0; column < columns; column++) {
+			if (column > 0) out.put(separator);
+			encodeInt(fields[base + column]);
+		}
+		out.put(LINE_SEPARATOR);
+	}
+
+	private void encodeInt(int value) {
+		if (value == EMPTY) return;
+
+		if (value < 0) {
+			out.put((byte) '-');
+			value = -value;
+		}
+
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+
+		while (count > 0) {
+			out.put(digits[--count]);
+		}
+	}
+
+	private void encodeText(String text) throws IOException {
+		CharBuffer chars = CharBuffer.wrap(text);
+		encoder.reset();
+
+		CoderResult result;
+		while ((result = encoder.encode(chars, out, true)).isOverflow()) {
+			flush();
+		}
+		if (result.isError()) result.throwException();
+		while (encoder.flush(out).isOverflow()) {
+			flush();
+		}
+
+		if (out.remaining() < LINE_SEPARATOR.length) flush();
+		out.put(LINE_SEPARATOR);
+	}
+
+	private void flush() throws IOException {
+		if (out.position() == 0) return;
+
+		out.flip();
+		if (format == RecordFormat.CSV_GZIP) {
+			if (gzip == null) {
+				gzip = new GZIPOutputStream(channelStream, OUTPUT_BUFFER_SIZE);
+				if (gzipInput == null) gzipInput = new byte[OUTPUT_BUFFER_SIZE];
+			}
+			int length = out.remaining();
+			out.get(gzipInput, 0, length);
+			gzip.write(gzipInput, 0, length);
+		} else {
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		}
+		out.clear();
+	}
+
+	private void finishGzipMember() throws IOException {
+		if (gzip != null) {
+			gzip.finish();
+			gzip = null;
+		}
+	}
+}
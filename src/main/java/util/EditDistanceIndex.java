@@ -0,0 +1,264 @@
+package util;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds the nearest key of a string within a small Levenshtein distance, without scanning the keys. Each key is cut
+ * into maxDistance + 1 segments, indexed by the key length, the segment number and the segment text. A string within
+ * d &lt;= maxDistance edits of a key leaves at least one of its segments untouched, and that segment appears in the
+ * string shifted by at most d chars (pigeonhole principle): a query looks up every such substring, then checks the few
+ * keys found with a Levenshtein computation bounded to the d diagonals around the main one.
+ * Keys shorter than maxDistance + 1 chars are not indexed. Immutable once built and safe to share between threads.
+ */
+public final class EditDistanceIndex {
+	private static final int EMPTY_SLOT = 0;
+	private static final int END_OF_LIST = -1;
+
+	private final int maxDistance;
+	private final char[] chars;
+	// key of entry i spans [keyOffsets[i], keyOffsets[i + 1]) in chars
+	private final int[] keyOffsets;
+	private final int[] values;
+	private final byte[] tags;
+	// segment hash -> first posting, then postings chained by entry
+	private final int[] slotHashes;
+	private final int[] slotHeads;
+	private final int slotMask;
+	private final int[] postingEntries;
+	private final int[] postingNext;
+
+	/**
+	 * Nearest key found: its value and tag as given to {@link Builder#add} and its distance to the query.
+	 */
+	public record Match(int value, int tag, int distance) {
+	}
+
+	private EditDistanceIndex(Builder builder) {
+		this.maxDistance = builder.maxDistance;
+		this.chars = Arrays.copyOf(builder.chars, builder.keyOffsets[builder.size]);
+		this.keyOffsets = Arrays.copyOf(builder.keyOffsets, builder.size + 1);
+		this.values = Arrays.copyOf(builder.values, builder.size);
+		this.tags = Arrays.copyOf(builder.tags, builder.size);
+
+		int segments = maxDistance + 1;
+		int postings = 0;
+		for (int entry = 0; entry < builder.size; entry++) {
+			if (keyLength(entry) >= segments) postings += segments;
+		}
+
+		// load factor at most 1/2
+		int capacity = Integer.highestOneBit(Math.max(postings, 1)) << 2;
+		this.slotHashes = new int[capacity];
+		this.slotHeads = new int[capacity];
+		this.slotMask = capacity - 1;
+		this.postingEntries = new int[postings];
+		this.postingNext = new int[postings];
+
+		CharSequence keys = CharBuffer.wrap(chars);
+		int posting = 0;
+		// backwards, so that each list ends up in entry order
+		for (int entry = builder.size - 1; entry >= 0; entry--) {
+			int length = keyLength(entry);
+			if (length < segments) continue;
+
+			int offset = keyOffsets[entry];
+			for (int segment = 0; segment < segments; segment++) {
+				int from = segmentStart(length, segment);
+				int hash = segmentHash(length, segment, keys, offset + from,
+						segmentStart(length, segment + 1) - from);
+				int slot = findSlot(hash);
+				if (slotHashes[slot] == EMPTY_SLOT) {
+					slotHashes[slot] = hash;
+					slotHeads[slot] = END_OF_LIST;
+				}
+				postingEntries[posting] = entry;
+				postingNext[posting] = slotHeads[slot];
+				slotHeads[slot] = posting++;
+			}
+		}
+	}
+
+	public static Builder builder(int maxDistance) {
+		return new Builder(maxDistance);
+	}
+
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * Estimated heap held by the index.
+	 */
+	public long memoryBytes() {
+		return (long) Character.BYTES * chars.length + tags.length + (long) Integer.BYTES * (keyOffsets.length
+				+ values.length + slotHashes.length + slotHeads.length + postingEntries.length + postingNext.length);
+	}
+
+	/**
+	 * Nearest key within {@code distance} edits (insertions, deletions or substitutions of a char) of the query.
+	 * Among keys at the same distance, the first one added wins.
+	 *
+	 * @param distance at most the maxDistance of the index
+	 * @return null when no key is that close
+	 */
+	public Match findNearest(CharSequence query, int distance) {
+		if (distance > maxDistance) throw new IllegalArgumentException("distance above " + maxDistance);
+		if (distance < 0) return null;
+
+		int queryLength = query.length();
+		int segments = maxDistance + 1;
+		int bestEntry = END_OF_LIST;
+		int bestDistance = distance + 1;
+
+		for (int length = Math.max(queryLength - distance, segments); length <= queryLength + distance; length++) {
+			for (int segment = 0; segment < segments; segment++) {
+				int from = segmentStart(length, segment);
+				int segmentLength = segmentStart(length, segment + 1) - from;
+
+				for (int shift = -distance; shift <= distance; shift++) {
+					int at = from + shift;
+					if (at < 0 || at + segmentLength > queryLength) continue;
+
+					int slot = findSlot(segmentHash(length, segment, query, at, segmentLength));
+					if (slotHashes[slot] == EMPTY_SLOT) continue;
+
+					for (int posting = slotHeads[slot]; posting != END_OF_LIST; posting = postingNext[posting]) {
+						int entry = postingEntries[posting];
+						// a hash collision can bring a key of another length
+						if (keyLength(entry) != length) continue;
+						// an earlier key may tie with the best one, a later one has to be closer
+						int bound = entry < bestEntry ? bestDistance : bestDistance - 1;
+						int found = boundedDistance(query, keyOffsets[entry], length, bound);
+						if (found <= bound) {
+							bestEntry = entry;
+							bestDistance = found;
+						}
+					}
+				}
+			}
+		}
+
+		return bestEntry == END_OF_LIST ? null : new Match(values[bestEntry], tags[bestEntry], bestDistance);
+	}
+
+	private int keyLength(int entry) {
+		return keyOffsets[entry + 1] - keyOffsets[entry];
+	}
+
+	private int segmentStart(int length, int segment) {
+		return (int) ((long) segment * length / (maxDistance + 1));
+	}
+
+	// the open slot of the hash, or the empty slot where it would go
+	private int findSlot(int hash) {
+		int slot = mix(hash) & slotMask;
+		while (slotHashes[slot] != EMPTY_SLOT && slotHashes[slot] != hash) {
+			slot = (slot + 1) & slotMask;
+		}
+		return slot;
+	}
+
+	// never EMPTY_SLOT
+	private static int segmentHash(int keyLength, int segment, CharSequence text, int from, int length) {
+		int hash = 31 * keyLength + segment;
+		for (int i = from; i < from + length; i++) {
+			hash = 31 * hash + text.charAt(i);
+		}
+		return hash == EMPTY_SLOT ? 1 : hash;
+	}
+
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		return hash ^ (hash >>> 16);
+	}
+
+	// Levenshtein distance between the query and a key when it is at most bound, bound + 1 otherwise. Only the cells
+	// within bound of the diagonal can hold a distance up to bound: the others are left at bound + 1
+	private int boundedDistance(CharSequence query, int keyOffset, int keyLength, int bound) {
+		int queryLength = query.length();
+		if (bound < 0) return bound + 1;
+		if (Math.abs(queryLength - keyLength) > bound) return bound + 1;
+
+		int over = bound + 1;
+		int[] previous = new int[keyLength + 1];
+		int[] current = new int[keyLength + 1];
+		for (int j = 0; j <= keyLength; j++) {
+			previous[j] = Math.min(j, over);
+		}
+
+		for (int i = 1; i <= queryLength; i++) {
+			int from = Math.max(1, i - bound);
+			int to = Math.min(keyLength, i + bound);
+			current[from - 1] = from == 1 ? Math.min(i, over) : over;
+			char c = query.charAt(i - 1);
+			int rowMin = current[from - 1];
+
+			for (int j = from; j <= to; j++) {
+				int cost = chars[keyOffset + j - 1] == c ? 0 : 1;
+				int above = j <= i - 1 + bound ? previous[j] : over;
+				int value = Math.min(Math.min(current[j - 1] + 1, above + 1), previous[j - 1] + cost);
+				current[j] = Math.min(value, over);
+				rowMin = Math.min(rowMin, current[j]);
+			}
+			if (to < keyLength) current[to + 1] = over;
+			if (rowMin > bound) return over;
+
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+
+		return previous[keyLength];
+	}
+
+	/**
+	 * Collects the keys of an index, each one with a value and a small tag telling where it comes from.
+	 */
+	public static final class Builder {
+		private final int maxDistance;
+		private char[] chars = new char[1 << 16];
+		private int[] keyOffsets = new int[1 << 10];
+		private int[] values = new int[(1 << 10) - 1];
+		private byte[] tags = new byte[(1 << 10) - 1];
+		private int size;
+
+		private Builder(int maxDistance) {
+			if (maxDistance < 0) throw new IllegalArgumentException("maxDistance must be positive");
+			this.maxDistance = maxDistance;
+		}
+
+		public Builder add(CharSequence key, int value, int tag) {
+			if (size == values.length) {
+				int capacity = values.length * 2 + 1;
+				keyOffsets = Arrays.copyOf(keyOffsets, capacity + 1);
+				values = Arrays.copyOf(values, capacity);
+				tags = Arrays.copyOf(tags, capacity);
+			}
+
+			int offset = keyOffsets[size];
+			long required = (long) offset + key.length();
+			if (required > Integer.MAX_VALUE - 8) throw new IllegalStateException("Index keys exceed 2G chars");
+			if (required > chars.length) {
+				chars = Arrays.copyOf(chars, (int) Math.min(Math.max(required, (long) chars.length * 2),
+						Integer.MAX_VALUE - 8));
+			}
+			for (int i = 0; i < key.length(); i++) {
+				chars[offset + i] = key.charAt(i);
+			}
+
+			keyOffsets[size + 1] = offset + key.length();
+			values[size] = value;
+			tags[size] = (byte) tag;
+			size++;
+			return this;
+		}
+
+		public EditDistanceIndex build() {
+			return new EditDistanceIndex(this);
+		}
+	}
+}
@@ -1,33 +1,103 @@
 package util;
 
-import javax.xml.parsers.*;
-import javax.xml.xpath.*;
-import org.w3c.dom.*;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
-import java.io.ByteArrayInputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class ParseXML {
+	// the JDK reader reports CDATA sections as CHARACTERS unless asked otherwise
+	private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
 
-	public static List<String> parseXml(String blocXml) throws Exception {
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder = factory.newDocumentBuilder();
-		Document doc = builder.parse(new ByteArrayInputStream(blocXml.getBytes(StandardCharsets.UTF_8)));
-		XPath xpath = XPathFactory.newInstance().newXPath();
+	// configured once; creating readers from it is thread-safe and avoids the per-call factory lookup
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
 
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// CDATA sections must stay distinct from the surrounding text, see forEachText
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		if (factory.isPropertySupported(REPORT_CDATA_EVENT)) {
+			factory.setProperty(REPORT_CDATA_EVENT, true);
+		}
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	public static List<String> parseXml(String blocXml) throws XMLStreamException {
 		List<String> result = new ArrayList<>();
-		NodeList nodes = (NodeList) xpath.evaluate("//text()", doc, XPathConstants.NODESET);
+		forEachText(blocXml, result::add);
+		return result;
+	}
 
-		for (int i = 0; i < nodes.getLength(); i++) {
-			String text = nodes.item(i).getTextContent();
-			if (!text.trim().isEmpty()) { // If it has non-whitespace content
-				result.add(text);
+	/**
+	 * Stream to the handler, in document order, the texts that {@code //text()} evaluated on the DOM used to select and
+	 * that have non-whitespace content, without building a DOM.
+	 * <p>
+	 * The JDK XPath sees a run of adjacent text and CDATA nodes as one text node: it is selected only if the run holds
+	 * a plain text node, and its value is then the content of the first node of the run alone. The same runs are
+	 * rebuilt here from the reader events.
+	 * If the document is malformed, the texts before the error have already been handed over when the exception is
+	 * thrown.
+	 */
+	public static void forEachText(String blocXml, Consumer<String> handler) throws XMLStreamException {
+		XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(blocXml));
+		// content of the first node of the current run
+		StringBuilder first = new StringBuilder();
+		boolean inRun = false;
+		boolean inFirstNode = false;
+		boolean runHasText = false;
+
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				switch (event) {
+					case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+						// a text node may come in several events; a CDATA section is always a node of its own
+						if (!inRun) {
+							inRun = true;
+							inFirstNode = true;
+						}
+						if (inFirstNode) {
+							first.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+						}
+						runHasText = true;
+					}
+					case XMLStreamConstants.CDATA -> {
+						if (!inRun) {
+							inRun = true;
+							first.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+						}
+						inFirstNode = false;
+					}
+					default -> {
+						if (inRun) {
+							if (runHasText && !isBlank(first)) {
+								handler.accept(first.toString());
+							}
+							first.setLength(0);
+							inRun = false;
+							inFirstNode = false;
+							runHasText = false;
+						}
+					}
+				}
 			}
+		} finally {
+			reader.close();
 		}
+	}
 
-		return result;
+	// same test as text.trim().isEmpty(), without building the String
+	private static boolean isBlank(CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) > ' ') return false;
+		}
+		return true;
 	}
 
 	public static String trimAndLowerCaseAndRemoveLineBreaks(String input) {
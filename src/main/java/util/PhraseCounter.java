@@ -0,0 +1,196 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Occurrence count and lowest id of each distinct phrase added, within a memory budget. Phrases are counted exactly
+ * until their estimated footprint reaches the budget; the phrases first seen after that are counted in a Count-Min
+ * sketch, and only the most frequent of them are kept, as heavy hitters. The count of a heavy hitter is an upper
+ * bound, over by at most e / width of the phrases added to the sketch with a probability of 1 - e^-depth, and its id
+ * a lower bound of the lowest id it came with.
+ * Lock-free until the budget is reached; then only the admission of a new heavy hitter takes a lock.
+ */
+public final class PhraseCounter {
+	// String, its chars, the map node and the tally
+	private static final int ENTRY_OVERHEAD_BYTES = 136;
+	private static final int DEPTH = 4;
+
+	private final long memoryBudget;
+	private final int maxHeavyHitters;
+	private final int widthMask;
+	private final AtomicLong memoryUsed = new AtomicLong();
+	private final Map<String, Tally> exact = new ConcurrentHashMap<>();
+
+	// sketch rows, allocated when the budget is reached
+	private volatile Sketch sketch;
+	private final Set<String> heavyHitters = ConcurrentHashMap.newKeySet();
+	// smallest count of a heavy hitter when the list is full: a phrase counted below it is not admitted
+	private volatile long admissionFloor;
+
+	/**
+	 * One line of the report.
+	 */
+	public record Entry(String phrase, long count, int firstId) {
+	}
+
+	private static final class Tally {
+		private final LongAdder count = new LongAdder();
+		private final AtomicInteger firstId = new AtomicInteger(Integer.MAX_VALUE);
+	}
+
+	private record Sketch(AtomicLongArray counts, AtomicIntegerArray firstIds) {
+	}
+
+	/**
+	 * @param memoryBudget    bytes of the exact counts
+	 * @param sketchWidth     counters per sketch row, rounded up to a power of two
+	 * @param maxHeavyHitters phrases kept once the budget is reached
+	 */
+	public PhraseCounter(long memoryBudget, int sketchWidth, int maxHeavyHitters) {
+		if (sketchWidth <= 0 || sketchWidth > 1 << 28) throw new IllegalArgumentException("sketchWidth out of range");
+		this.memoryBudget = memoryBudget;
+		this.maxHeavyHitters = maxHeavyHitters;
+		this.widthMask = (sketchWidth == 1 ? 1 : Integer.highestOneBit(sketchWidth - 1) << 1) - 1;
+	}
+
+	public void add(String phrase, int id) {
+		add(phrase, 1, id);
+	}
+
+	/**
+	 * Count occurrences of a phrase at once, such as a line of a former report, with the lowest id they came with.
+	 */
+	public void add(String phrase, long count, int id) {
+		Tally tally = exact.get(phrase);
+		if (tally == null && sketch == null) {
+			tally = exact.computeIfAbsent(phrase, key -> {
+				// a few concurrent insertions may overshoot the budget
+				if (memoryUsed.addAndGet(ENTRY_OVERHEAD_BYTES + 2L * key.length()) > memoryBudget) {
+					startSketch();
+				}
+				return new Tally();
+			});
+		}
+
+		if (tally != null) {
+			tally.count.add(count);
+			tally.firstId.accumulateAndGet(id, Math::min);
+		} else {
+			addToSketch(phrase, count, id);
+		}
+	}
+
+	/**
+	 * True once the budget was reached, so that the counts of the report are no longer all exact.
+	 */
+	public boolean isApproximate() {
+		return sketch != null;
+	}
+
+	/**
+	 * The exact counts and the heavy hitters, by decreasing count then phrase.
+	 */
+	public List<Entry> entries() {
+		List<Entry> entries = new ArrayList<>(exact.size() + heavyHitters.size());
+		exact.forEach((phrase, tally) -> entries.add(new Entry(phrase, tally.count.sum(), tally.firstId.get())));
+		Sketch current = sketch;
+		if (current != null) {
+			for (String phrase : heavyHitters) {
+				entries.add(new Entry(phrase, estimate(current, phrase), estimateFirstId(current, phrase)));
+			}
+		}
+
+		entries.sort(Comparator.comparingLong(Entry::count).reversed().thenComparing(Entry::phrase));
+		return entries;
+	}
+
+	private synchronized void startSketch() {
+		if (sketch == null) {
+			int cells = DEPTH * (widthMask + 1);
+			AtomicIntegerArray firstIds = new AtomicIntegerArray(cells);
+			for (int i = 0; i < cells; i++) {
+				firstIds.set(i, Integer.MAX_VALUE);
+			}
+			sketch = new Sketch(new AtomicLongArray(cells), firstIds);
+		}
+	}
+
+	private void addToSketch(String phrase, long occurrences, int id) {
+		Sketch current = sketch;
+		long count = Long.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			int cell = cell(phrase, row);
+			count = Math.min(count, current.counts().addAndGet(cell, occurrences));
+			current.firstIds().accumulateAndGet(cell, id, Math::min);
+		}
+
+		if (count > admissionFloor && !heavyHitters.contains(phrase)) {
+			admit(current, phrase, count);
+		}
+	}
+
+	// Add a phrase to the heavy hitters, evicting the least counted one when the list is full
+	private synchronized void admit(Sketch current, String phrase, long count) {
+		if (heavyHitters.size() < maxHeavyHitters) {
+			heavyHitters.add(phrase);
+			return;
+		}
+
+		String least = null;
+		long leastCount = Long.MAX_VALUE;
+		for (String candidate : heavyHitters) {
+			long candidateCount = estimate(current, candidate);
+			if (candidateCount < leastCount) {
+				least = candidate;
+				leastCount = candidateCount;
+			}
+		}
+		if (least != null && leastCount < count && heavyHitters.add(phrase)) {
+			heavyHitters.remove(least);
+		}
+		admissionFloor = Math.min(Math.max(leastCount, admissionFloor), count);
+	}
+
+	private long estimate(Sketch current, String phrase) {
+		long count = Long.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			count = Math.min(count, current.counts().get(cell(phrase, row)));
+		}
+		return count;
+	}
+
+	// each cell holds the lowest id of all the phrases hashed to it, never above the one of the phrase
+	private int estimateFirstId(Sketch current, String phrase) {
+		int firstId = Integer.MIN_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			firstId = Math.max(firstId, current.firstIds().get(cell(phrase, row)));
+		}
+		return firstId;
+	}
+
+	// row-th hash of the phrase (double hashing), as an index into the flattened rows
+	private int cell(String phrase, int row) {
+		int hash = phrase.hashCode();
+		int first = mix(hash);
+		int second = mix(hash ^ 0x9e3779b9) | 1;
+		return row * (widthMask + 1) + ((first + row * second) & widthMask);
+	}
+
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,404 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read-only map from strings to int values, compact enough for tables of millions of rows. The keys are stored
+ * UTF-8 encoded one after the other in a single byte arena, on the heap or off-heap, and are found through an
+ * open-addressing table of entry indexes; values are primitive ints. A lookup hashes the chars of the key and compares
+ * them against the arena as it encodes them, so it allocates nothing.
+ * Per entry, the heap holds the key bytes (unless off-heap) and about 16 bytes of index, instead of the String, boxed
+ * Integer and HashMap node of a {@code HashMap<String, Integer>}.
+ * Built by a {@link Builder}, immutable and safe to share between threads afterwards. A dictionary can be written to a
+ * file with {@link #writeTo} and mapped back with {@link #map}: the mapped one reads the file in place, without
+ * decoding it.
+ */
+public final class PhraseDictionary {
+	private static final int EMPTY_SLOT = -1;
+	// file layout: size, slot count, key bytes, then the offsets, values and slots as little-endian ints, then the keys
+	private static final int HEADER_INTS = 3;
+	private static final int IO_CHUNK_INTS = 1 << 14;
+
+	// key of entry i spans [keyOffsets[i], keyOffsets[i + 1]) in the arena
+	private final ByteBuffer keys;
+	private final IntBuffer keyOffsets;
+	private final IntBuffer values;
+	private final IntBuffer slots;
+	private final int mask;
+	private final int size;
+
+	private PhraseDictionary(ByteBuffer keys, IntBuffer keyOffsets, IntBuffer values, IntBuffer slots, int size) {
+		this.keys = keys;
+		this.keyOffsets = keyOffsets;
+		this.values = values;
+		this.slots = slots;
+		this.mask = slots.capacity() - 1;
+		this.size = size;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return the value of the key, or {@code missingValue} when the dictionary has no such key
+	 */
+	public int get(CharSequence key, int missingValue) {
+		int hash = hash(key);
+		int encodedLength = encodedLength(key);
+
+		for (int slot = mix(hash) & mask; slots.get(slot) != EMPTY_SLOT; slot = (slot + 1) & mask) {
+			int entry = slots.get(slot);
+			int offset = keyOffsets.get(entry);
+			if (keyOffsets.get(entry + 1) - offset == encodedLength && matches(key, keys, offset)) {
+				return values.get(entry);
+			}
+		}
+		return missingValue;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Size of the encoded keys, held off-heap when the dictionary was built so.
+	 */
+	public long keyBytes() {
+		return keyOffsets.get(size);
+	}
+
+	/**
+	 * Heap and direct memory held by the dictionary: none for a mapped one, whose pages belong to the file cache.
+	 */
+	public long memoryBytes() {
+		if (keys instanceof MappedByteBuffer) return 0;
+		return keys.capacity() + (long) Integer.BYTES * (keyOffsets.capacity() + values.capacity() + slots.capacity());
+	}
+
+	/**
+	 * Receives the entries of a dictionary.
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+		/**
+		 * @param key valid during the call only
+		 */
+		void accept(CharSequence key, int value);
+	}
+
+	/**
+	 * Visit the entries in the order their keys were first put.
+	 */
+	public void forEach(EntryConsumer consumer) {
+		char[] chars = new char[64];
+		for (int entry = 0; entry < size; entry++) {
+			int from = keyOffsets.get(entry);
+			int to = keyOffsets.get(entry + 1);
+			if (chars.length < to - from) chars = new char[to - from];
+
+			int length = decode(keys, from, to, chars);
+			consumer.accept(CharBuffer.wrap(chars, 0, length), values.get(entry));
+		}
+	}
+
+	// reverse of Builder.encode: at most one char per byte
+	private static int decode(ByteBuffer arena, int from, int to, char[] chars) {
+		int length = 0;
+		int position = from;
+		while (position < to) {
+			int b = arena.get(position++) & 0xFF;
+			if (b < 0x80) {
+				chars[length++] = (char) b;
+			} else if (b < 0xE0) {
+				chars[length++] = (char) ((b & 0x1F) << 6 | arena.get(position++) & 0x3F);
+			} else if (b < 0xF0) {
+				chars[length++] = (char) ((b & 0x0F) << 12 | (arena.get(position++) & 0x3F) << 6
+						| arena.get(position++) & 0x3F);
+			} else {
+				int codePoint = (b & 0x07) << 18 | (arena.get(position++) & 0x3F) << 12
+						| (arena.get(position++) & 0x3F) << 6 | arena.get(position++) & 0x3F;
+				chars[length++] = Character.highSurrogate(codePoint);
+				chars[length++] = Character.lowSurrogate(codePoint);
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Write the dictionary at the position of the channel, leaving it after the last byte written.
+	 */
+	public void writeTo(FileChannel channel) throws IOException {
+		IntBuffer header = IntBuffer.wrap(new int[]{size, slots.capacity(), keyOffsets.get(size)});
+		writeInts(channel, header);
+		writeInts(channel, keyOffsets.duplicate().clear());
+		writeInts(channel, values.duplicate().clear());
+		writeInts(channel, slots.duplicate().clear());
+
+		ByteBuffer keyBytes = keys.duplicate().clear().limit(keyOffsets.get(size));
+		while (keyBytes.hasRemaining()) {
+			channel.write(keyBytes);
+		}
+	}
+
+	/**
+	 * Map a dictionary written by {@link #writeTo} at the given position of the file. The mapping stays valid after
+	 * the channel is closed.
+	 */
+	public static PhraseDictionary map(FileChannel channel, long position) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_INTS * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining()) {
+			if (channel.read(header, position + header.position()) < 0) {
+				throw new IOException("Truncated dictionary file");
+			}
+		}
+		int size = header.getInt(0);
+		int slotCount = header.getInt(Integer.BYTES);
+		int keyBytes = header.getInt(2 * Integer.BYTES);
+
+		long offsetsAt = position + HEADER_INTS * Integer.BYTES;
+		long valuesAt = offsetsAt + (size + 1L) * Integer.BYTES;
+		long slotsAt = valuesAt + (long) size * Integer.BYTES;
+		long keysAt = slotsAt + (long) slotCount * Integer.BYTES;
+		if (keysAt + keyBytes > channel.size()) {
+			throw new IOException("Truncated dictionary file");
+		}
+
+		return new PhraseDictionary(
+				channel.map(FileChannel.MapMode.READ_ONLY, keysAt, keyBytes),
+				mapInts(channel, offsetsAt, size + 1),
+				mapInts(channel, valuesAt, size),
+				mapInts(channel, slotsAt, slotCount),
+				size);
+	}
+
+	private static IntBuffer mapInts(FileChannel channel, long position, int count) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * Integer.BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN)
+				.asIntBuffer();
+	}
+
+	private static void writeInts(FileChannel channel, IntBuffer ints) throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(IO_CHUNK_INTS * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		while (ints.hasRemaining()) {
+			int count = Math.min(ints.remaining(), IO_CHUNK_INTS);
+			chunk.clear();
+			chunk.asIntBuffer().put(ints.slice(ints.position(), count));
+			ints.position(ints.position() + count);
+			chunk.limit(count * Integer.BYTES);
+			while (chunk.hasRemaining()) {
+				channel.write(chunk);
+			}
+		}
+	}
+
+	// String.hashCode() over any char sequence: cached by the String keys
+	private static int hash(CharSequence key) {
+		if (key instanceof String string) return string.hashCode();
+
+		int hash = 0;
+		for (int i = 0; i < key.length(); i++) {
+			hash = 31 * hash + key.charAt(i);
+		}
+		return hash;
+	}
+
+	// spreads the polynomial hash over the low bits used by the table (murmur3 finalizer)
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		return hash ^ (hash >>> 16);
+	}
+
+	// The encoding is UTF-8, except for unpaired surrogates that take 3 bytes each like any other char of the BMP
+	// instead of being replaced: it stays one-to-one, so comparing the bytes compares the strings
+	private static int encodedLength(CharSequence key) {
+		int length = 0;
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < key.length() && Character.isLowSurrogate(key.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static boolean matches(CharSequence key, ByteBuffer arena, int offset) {
+		int position = offset;
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c < 0x80) {
+				if (arena.get(position++) != (byte) c) return false;
+			} else if (c < 0x800) {
+				if (arena.get(position++) != (byte) (0xC0 | c >> 6)
+						|| arena.get(position++) != (byte) (0x80 | c & 0x3F)) return false;
+			} else if (Character.isHighSurrogate(c) && i + 1 < key.length() && Character.isLowSurrogate(key.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, key.charAt(++i));
+				if (arena.get(position++) != (byte) (0xF0 | codePoint >> 18)
+						|| arena.get(position++) != (byte) (0x80 | codePoint >> 12 & 0x3F)
+						|| arena.get(position++) != (byte) (0x80 | codePoint >> 6 & 0x3F)
+						|| arena.get(position++) != (byte) (0x80 | codePoint & 0x3F)) return false;
+			} else {
+				if (arena.get(position++) != (byte) (0xE0 | c >> 12)
+						|| arena.get(position++) != (byte) (0x80 | c >> 6 & 0x3F)
+						|| arena.get(position++) != (byte) (0x80 | c & 0x3F)) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Collects the entries of a dictionary. Like {@link java.util.Map#put}, putting a key again replaces its value.
+	 */
+	public static final class Builder {
+		private static final int INITIAL_CAPACITY = 1 << 10;
+
+		private byte[] arena = new byte[INITIAL_CAPACITY * 32];
+		private int[] keyOffsets = new int[INITIAL_CAPACITY + 1];
+		private int[] values = new int[INITIAL_CAPACITY];
+		private int[] hashes = new int[INITIAL_CAPACITY];
+		private int[] slots = newSlots(INITIAL_CAPACITY * 2);
+		private int size;
+
+		private Builder() {
+		}
+
+		public Builder put(CharSequence key, int value) {
+			int hash = hash(key);
+			int encodedLength = encodedLength(key);
+			ByteBuffer view = ByteBuffer.wrap(arena);
+
+			int mask = slots.length - 1;
+			int slot = mix(hash) & mask;
+			for (; slots[slot] != EMPTY_SLOT; slot = (slot + 1) & mask) {
+				int entry = slots[slot];
+				int offset = keyOffsets[entry];
+				if (hashes[entry] == hash && keyOffsets[entry + 1] - offset == encodedLength
+						&& matches(key, view, offset)) {
+					values[entry] = value;
+					return this;
+				}
+			}
+
+			ensureCapacity(encodedLength);
+			int offset = keyOffsets[size];
+			encode(key, offset);
+			keyOffsets[size + 1] = offset + encodedLength;
+			values[size] = value;
+			hashes[size] = hash;
+			slots[slot] = size;
+			size++;
+
+			// load factor at most 1/2: probe sequences stay short
+			if (size * 2 > slots.length) rehash(slots.length * 2);
+			return this;
+		}
+
+		/**
+		 * @param offHeap keep the encoded keys in a direct buffer, out of the heap and of the garbage collector's work
+		 */
+		public PhraseDictionary build(boolean offHeap) {
+			int keyBytes = keyOffsets[size];
+			ByteBuffer keys;
+			if (offHeap) {
+				keys = ByteBuffer.allocateDirect(Math.max(keyBytes, 1));
+				keys.put(arena, 0, keyBytes).clear();
+			} else {
+				keys = ByteBuffer.wrap(Arrays.copyOf(arena, keyBytes));
+			}
+
+			// smallest table keeping the load factor at most 1/2
+			int capacity = Integer.highestOneBit(Math.max(size, 1)) << 2;
+			if (capacity / 4 == size) capacity /= 2;
+			int[] table = newSlots(capacity);
+			fill(table, hashes, size);
+
+			PhraseDictionary dictionary = new PhraseDictionary(keys, IntBuffer.wrap(Arrays.copyOf(keyOffsets, size + 1)),
+					IntBuffer.wrap(Arrays.copyOf(values, size)), IntBuffer.wrap(table), size);
+			arena = null;
+			hashes = null;
+			slots = null;
+			return dictionary;
+		}
+
+		private void ensureCapacity(int encodedLength) {
+			if (size + 1 == values.length) {
+				int capacity = values.length * 2;
+				keyOffsets = Arrays.copyOf(keyOffsets, capacity + 1);
+				values = Arrays.copyOf(values, capacity);
+				hashes = Arrays.copyOf(hashes, capacity);
+			}
+
+			long required = (long) keyOffsets[size] + encodedLength;
+			if (required > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Dictionary keys exceed 2 GB");
+			}
+			if (required > arena.length) {
+				arena = Arrays.copyOf(arena, (int) Math.min(Math.max(required, (long) arena.length * 2),
+						Integer.MAX_VALUE - 8));
+			}
+		}
+
+		private void encode(CharSequence key, int offset) {
+			int position = offset;
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				if (c < 0x80) {
+					arena[position++] = (byte) c;
+				} else if (c < 0x800) {
+					arena[position++] = (byte) (0xC0 | c >> 6);
+					arena[position++] = (byte) (0x80 | c & 0x3F);
+				} else if (Character.isHighSurrogate(c) && i + 1 < key.length()
+						&& Character.isLowSurrogate(key.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, key.charAt(++i));
+					arena[position++] = (byte) (0xF0 | codePoint >> 18);
+					arena[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+					arena[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+					arena[position++] = (byte) (0x80 | codePoint & 0x3F);
+				} else {
+					arena[position++] = (byte) (0xE0 | c >> 12);
+					arena[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+					arena[position++] = (byte) (0x80 | c & 0x3F);
+				}
+			}
+		}
+
+		private void rehash(int capacity) {
+			slots = newSlots(capacity);
+			fill(slots, hashes, size);
+		}
+
+		private static void fill(int[] table, int[] hashes, int size) {
+			int mask = table.length - 1;
+			for (int entry = 0; entry < size; entry++) {
+				int slot = mix(hashes[entry]) & mask;
+				while (table[slot] != EMPTY_SLOT) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = entry;
+			}
+		}
+
+		private static int[] newSlots(int capacity) {
+			int[] table = new int[capacity];
+			Arrays.fill(table, EMPTY_SLOT);
+			return table;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Records of one task, kept in memory until they are appended to the output in a deterministic order. Filled by a
+ * single thread, then drained by another one once the task completed.
+ */
+public final class RecordBuffer implements RecordSink {
+	private static final int FIELDS = 3;
+
+	private int[] fields = new int[FIELDS * 8];
+	// text of the line records, null for the int ones
+	private String[] lines = new String[8];
+	private int size;
+
+	@Override
+	public void write(int first, int second) {
+		write(first, second, CsvRecordWriter.EMPTY, null);
+	}
+
+	@Override
+	public void write(int first, int second, int third) {
+		write(first, second, third, null);
+	}
+
+	@Override
+	public void writeLine(String text) {
+		write(CsvRecordWriter.EMPTY, CsvRecordWriter.EMPTY, CsvRecordWriter.EMPTY, text);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Write the records to a sink in the order they were added, then empty the buffer.
+	 */
+	public void drainTo(RecordSink sink) {
+		for (int i = 0; i < size; i++) {
+			if (lines[i] != null) {
+				sink.writeLine(lines[i]);
+				lines[i] = null;
+			} else {
+				sink.write(fields[i * FIELDS], fields[i * FIELDS + 1], fields[i * FIELDS + 2]);
+			}
+		}
+		size = 0;
+	}
+
+	private void write(int first, int second, int third, String line) {
+		if (size == lines.length) {
+			fields = Arrays.copyOf(fields, size * 2 * FIELDS);
+			lines = Arrays.copyOf(lines, size * 2);
+		}
+		fields[size * FIELDS] = first;
+		fields[size * FIELDS + 1] = second;
+		fields[size * FIELDS + 2] = third;
+		lines[size] = line;
+		size++;
+	}
+}
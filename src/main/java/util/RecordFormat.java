@@ -0,0 +1,40 @@
+package util;
+
+/**
+ * Encoding of the files written by {@link CsvRecordWriter}.
+ */
+public enum RecordFormat {
+	// text lines
+	CSV(".csv"),
+	// text lines, gzip-compressed as one gzip member per sync, which is still a valid .gz file
+	CSV_GZIP(".csv.gz"),
+	// a header, then the int columns of each record as fixed-width little-endian ints, read by BinaryRecordReader.
+	// Text lines cannot be written in this format
+	BINARY(".bin");
+
+	// "RTAR"
+	static final int BINARY_MAGIC = 0x52544152;
+	static final int BINARY_VERSION = 1;
+	// magic, version, columns, reserved
+	public static final int BINARY_HEADER_BYTES = 16;
+
+	private final String extension;
+
+	RecordFormat(String extension) {
+		this.extension = extension;
+	}
+
+	/**
+	 * The file name of an output, from its name without extension.
+	 */
+	public String fileName(String baseName) {
+		return baseName + extension;
+	}
+
+	/**
+	 * Format of the outputs holding text lines: binary outputs fall back to csv.
+	 */
+	public RecordFormat forText() {
+		return this == BINARY ? CSV : this;
+	}
+}
@@ -0,0 +1,13 @@
+package util;
+
+/**
+ * Destination of the records of the relationship jobs: an output file, or a buffer appended to one later.
+ */
+public interface RecordSink {
+
+	void write(int first, int second);
+
+	void write(int first, int second, int third);
+
+	void writeLine(String text);
+}
@@ -0,0 +1,261 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Single-pass sentence normalizer working over a reusable char buffer. In one scan it folds diacritics (NFD then
+ * removal of the combining marks), replaces {@code ; : ? ! « » " \r \n} by spaces, replaces by spaces the periods and
+ * commas that are not between two digits (preserving 1,234 and 3.14), collapses whitespace, trims, lowercases and
+ * counts the words.
+ * <p>
+ * (), [] and {} are not replaced because they will be used to detect potential placeholders.
+ * ' is another special character in French, but it isn't replaced by a blank space because it would produce extra words.
+ * <p>
+ * The output is identical to the former regex chain ({@code Normalizer.normalize(NFD)}, {@code \p{M}+} removal,
+ * three {@code replaceAll}, {@code trim()}, {@code toLowerCase()}) and the word count to
+ * {@code normalized.split("\\s+").length}. An instance keeps its buffer between calls and must not be shared
+ * between threads.
+ */
+public class SentenceNormalizer {
+	// fold table values that are not a char
+	private static final int MARK = -1;
+	private static final int COMPLEX = -2;
+
+	private char[] buffer = new char[256];
+	private int length;
+	private int start;
+	private int end;
+	private int spaces;
+	private int wordCount;
+	private boolean lastWasSpace;
+	// previous non-mark char before replacement, for the digit rule
+	private char previous;
+	// locale or context dependent lowercasing (tr/az/lt, final sigma, supplementary chars): done with String.toLowerCase
+	private boolean lowerCaseAtEnd;
+	private boolean rawCase;
+	private String lowerCased;
+
+	/**
+	 * Normalize the sentence; the result is then available through {@link #result()}, {@link #writeTo(Writer)} and
+	 * {@link #wordCount()} until the next call.
+	 */
+	public SentenceNormalizer normalize(String sentence) {
+		reset(sentence.length());
+
+		if (!foldAndEmit(sentence)) {
+			// a char the fold table can't handle on its own: decompose the whole sentence and run the same pass over it
+			String decomposed = Normalizer.normalize(sentence, Normalizer.Form.NFD);
+			reset(decomposed.length());
+			emitDecomposed(decomposed);
+		}
+
+		finish();
+		return this;
+	}
+
+	public String result() {
+		return lowerCased != null ? lowerCased : new String(buffer, start, end - start);
+	}
+
+	public int wordCount() {
+		return wordCount;
+	}
+
+	/**
+	 * Write the normalized sentence without building an intermediate String.
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		if (lowerCased != null) {
+			writer.write(lowerCased);
+		} else {
+			writer.write(buffer, start, end - start);
+		}
+	}
+
+	/**
+	 * Append the normalized sentence without building an intermediate String.
+	 */
+	public void appendTo(StringBuilder sb) {
+		if (lowerCased != null) {
+			sb.append(lowerCased);
+		} else {
+			sb.append(buffer, start, end - start);
+		}
+	}
+
+	private void reset(int capacity) {
+		if (buffer.length < capacity) {
+			buffer = new char[Math.max(capacity, buffer.length * 2)];
+		}
+		length = 0;
+		spaces = 0;
+		lastWasSpace = false;
+		previous = 0;
+		lowerCased = null;
+
+		String language = Locale.getDefault().getLanguage();
+		rawCase = language.equals("tr") || language.equals("az") || language.equals("lt");
+		lowerCaseAtEnd = rawCase;
+	}
+
+	// Fast path: ASCII chars are taken as they are, the others through the precomputed fold table
+	private boolean foldAndEmit(String sentence) {
+		int n = sentence.length();
+		for (int i = 0; i < n; i++) {
+			int folded = fold(sentence.charAt(i));
+			if (folded == MARK) continue;
+			if (folded == COMPLEX) return false;
+
+			emit((char) folded, folded == '.' || folded == ',' ? isDigit(nextFolded(sentence, i + 1)) : false);
+		}
+		return true;
+	}
+
+	private void emitDecomposed(String decomposed) {
+		int n = decomposed.length();
+		for (int i = 0; i < n; ) {
+			int codePoint = decomposed.codePointAt(i);
+			int next = i + Character.charCount(codePoint);
+
+			if (!isMark(codePoint)) {
+				if (Character.isSupplementaryCodePoint(codePoint)) {
+					// never replaced; its case mapping is left to String.toLowerCase
+					buffer[length++] = decomposed.charAt(i);
+					buffer[length++] = decomposed.charAt(i + 1);
+					lastWasSpace = false;
+					previous = decomposed.charAt(i);
+					lowerCaseAtEnd = true;
+				} else {
+					char c = (char) codePoint;
+					emit(c, c == '.' || c == ',' ? isDigit(nextNonMark(decomposed, next)) : false);
+				}
+			}
+			i = next;
+		}
+	}
+
+	private void emit(char c, boolean nextIsDigit) {
+		boolean space = switch (c) {
+			case ' ', '\t', '\n', '\u000B', '\f', '\r', ';', ':', '?', '!', '«', '»', '"' -> true;
+			case '.', ',' -> !(isDigit(previous) && nextIsDigit);
+			default -> false;
+		};
+		previous = c;
+
+		if (space) {
+			if (!lastWasSpace) {
+				buffer[length++] = ' ';
+				spaces++;
+				lastWasSpace = true;
+			}
+			return;
+		}
+
+		buffer[length++] = lowerCase(c);
+		lastWasSpace = false;
+	}
+
+	private char lowerCase(char c) {
+		if (c < 0x80) {
+			return c >= 'A' && c <= 'Z' && !rawCase ? (char) (c | 0x20) : c;
+		}
+		if (rawCase) return c;
+		if (c == 'Σ') {
+			// final sigma depends on the surrounding letters
+			lowerCaseAtEnd = true;
+			return c;
+		}
+		return Character.toLowerCase(c);
+	}
+
+	private void finish() {
+		start = 0;
+		while (start < length && buffer[start] <= ' ') {
+			if (buffer[start] == ' ') spaces--;
+			start++;
+		}
+		end = length;
+		while (end > start && buffer[end - 1] <= ' ') {
+			if (buffer[end - 1] == ' ') spaces--;
+			end--;
+		}
+
+		// split("\\s+") of an empty string still returns one token
+		wordCount = spaces + 1;
+
+		if (lowerCaseAtEnd) {
+			lowerCased = new String(buffer, start, end - start).toLowerCase();
+		}
+	}
+
+	private static int nextFolded(String sentence, int from) {
+		for (int i = from; i < sentence.length(); i++) {
+			int folded = fold(sentence.charAt(i));
+			if (folded != MARK) return folded;
+		}
+		return -1;
+	}
+
+	private static int nextNonMark(String decomposed, int from) {
+		for (int i = from; i < decomposed.length(); ) {
+			int codePoint = decomposed.codePointAt(i);
+			if (!isMark(codePoint)) return codePoint;
+			i += Character.charCount(codePoint);
+		}
+		return -1;
+	}
+
+	private static int fold(char c) {
+		return c < 0x80 ? c : FoldTable.FOLD[c];
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isMark(int codePoint) {
+		int type = Character.getType(codePoint);
+		return type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+				|| type == Character.COMBINING_SPACING_MARK;
+	}
+
+	// Per-char NFD without combining marks, built on first use. Chars whose result isn't a single char, or that could be
+	// reordered by the canonical ordering of a whole-string NFD, are COMPLEX and handled by the decomposed path
+	private static final class FoldTable {
+		private static final int[] FOLD = build();
+
+		private static int[] build() {
+			Pattern marks = Pattern.compile("\\p{M}+");
+			int[] fold = new int[Character.MAX_VALUE + 1];
+
+			for (int c = 0; c <= Character.MAX_VALUE; c++) {
+				if (c < 0x80) {
+					fold[c] = c;
+					continue;
+				}
+				if (Character.isSurrogate((char) c)) {
+					fold[c] = COMPLEX;
+					continue;
+				}
+
+				String s = String.valueOf((char) c);
+				String folded = marks.matcher(Normalizer.normalize(s, Normalizer.Form.NFD)).replaceAll("");
+				if (folded.isEmpty()) {
+					fold[c] = MARK;
+				} else if (folded.length() > 1
+						|| !Normalizer.normalize("\u0345" + s, Normalizer.Form.NFD).startsWith("\u0345")) {
+					// U+0345 has the highest combining class: anything moving in front of it is not a starter
+					fold[c] = COMPLEX;
+				} else {
+					fold[c] = folded.charAt(0);
+				}
+			}
+
+			return fold;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.example.rta.dto;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardTest {
+
+	@Test
+	public void testIndexShardsCoverEveryIdOnce() {
+		IdRange table = new IdRange(-7, 1_000_003);
+		for (int count = 1; count <= 12; count++) {
+			long previousMax = (long) Integer.MIN_VALUE - 1;
+			for (int index = 0; index < count; index++) {
+				IdRange range = Shard.of(index, count).bounds(() -> table);
+				// contiguous, in order, never empty within the table
+				assertEquals(previousMax + 1, (long) range.min(), index + " of " + count);
+				assertTrue(range.min() <= range.max(), index + " of " + count);
+				previousMax = range.max();
+			}
+			assertEquals((long) Integer.MAX_VALUE, previousMax, "last of " + count);
+		}
+	}
+
+	@Test
+	public void testEmptyTableSplitStillCoversEveryIdOnce() {
+		for (int count = 2; count <= 5; count++) {
+			long previousMax = (long) Integer.MIN_VALUE - 1;
+			for (int index = 0; index < count; index++) {
+				IdRange range = Shard.of(index, count).bounds(() -> new IdRange(null, null));
+				// possibly empty, ending right before it starts
+				assertEquals(previousMax + 1, (long) range.min(), index + " of " + count);
+				previousMax = range.max();
+			}
+			assertEquals((long) Integer.MAX_VALUE, previousMax, "last of " + count);
+		}
+	}
+
+	@Test
+	public void testSuffixNamesTheShard() {
+		assertEquals("", Shard.ALL.suffix());
+		assertEquals(".shard-2-of-4", Shard.of(2, 4).suffix());
+		assertEquals(".ids--5-100", Shard.ids(-5, 100).suffix());
+		assertEquals(new IdRange(-5, 100), Shard.ids(-5, 100).bounds(() -> {
+			throw new AssertionError("table range queried");
+		}));
+	}
+}
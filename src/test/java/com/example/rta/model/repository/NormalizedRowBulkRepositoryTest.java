@@ -0,0 +1,151 @@
+package com.example.rta.model.repository;
+
+import com.example.rta.dto.NormalizedRow;
+import com.example.rta.dto.SourceSentenceDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NormalizedRowBulkRepositoryTest {
+	private static final String SCHEMA = "data_analysis";
+
+	private EmbeddedDatabase database;
+	private JdbcTemplate jdbcTemplate;
+	private NormalizedRowBulkRepository repository;
+
+	@BeforeEach
+	public void setUp() {
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+		jdbcTemplate = new JdbcTemplate(database);
+		jdbcTemplate.execute("CREATE SCHEMA " + SCHEMA);
+		for (NormalizedTable table : NormalizedTable.values()) {
+			jdbcTemplate.execute("CREATE TABLE " + SCHEMA + "." + table.getTableName() + " (id INT NOT NULL PRIMARY KEY, "
+					+ table.getNormalizedColumn() + " VARCHAR(4000), word_count INT, "
+					+ table.getOriginalColumn() + " VARCHAR(4000))");
+			jdbcTemplate.execute("CREATE TABLE " + SCHEMA + "." + table.getSourceTableName()
+					+ " (id INT NOT NULL PRIMARY KEY, " + table.getSourceColumn() + " VARCHAR(4000))");
+		}
+
+		// H2 compares the texts char for char already, and knows no COLLATE clause
+		repository = new NormalizedRowBulkRepository(jdbcTemplate, new DataSourceTransactionManager(database), SCHEMA,
+				"");
+	}
+
+	@AfterEach
+	public void tearDown() {
+		database.shutdown();
+	}
+
+	@Test
+	public void testInsertAllWritesEveryColumn() {
+		repository.insertAll(NormalizedTable.CONT_EDITORIAL_SENTENCE, List.of(
+				new NormalizedRow(1, "appuyer sur la pedale", 4, "Appuyer sur la pédale"),
+				new NormalizedRow(2, "", 1, " ;; ")));
+
+		List<NormalizedRow> rows = jdbcTemplate.query(
+				"SELECT id, normalized_sentence, word_count, original_sentence FROM " + SCHEMA
+						+ ".normalized_cont_editorial_sentence ORDER BY id",
+				(rs, i) -> new NormalizedRow(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getString(4)));
+
+		assertEquals(List.of(
+				new NormalizedRow(1, "appuyer sur la pedale", 4, "Appuyer sur la pédale"),
+				new NormalizedRow(2, "", 1, " ;; ")), rows);
+	}
+
+	@Test
+	public void testRebuildReplacesTheContentOnCommit() {
+		repository.insertAll(NormalizedTable.LIBELLE, List.of(new NormalizedRow(7, "ancien", 1, "Ancien")));
+
+		try (NormalizedRowBulkRepository.Rebuild rebuild = repository.rebuild(NormalizedTable.LIBELLE)) {
+			for (int from = 1; from <= 10_000; from += 5000) {
+				List<NormalizedRow> batch = new ArrayList<>();
+				for (int id = from; id < from + 5000; id++) {
+					batch.add(new NormalizedRow(id, "libelle " + id, 2, "Libellé " + id));
+				}
+				rebuild.insertAll(batch);
+			}
+			// nothing shows before the commit
+			assertEquals(1, repository.countRows(NormalizedTable.LIBELLE));
+			rebuild.commit();
+		}
+
+		assertEquals(10_000, repository.countRows(NormalizedTable.LIBELLE));
+		assertEquals(0, repository.countRows(NormalizedTable.LIBELLE_EXTRA));
+		assertEquals("Libellé 9999", jdbcTemplate.queryForObject(
+				"SELECT original_libelle FROM " + SCHEMA + ".normalized_libelle WHERE id = 9999", String.class));
+	}
+
+	@Test
+	public void testRebuildClosedWithoutCommitKeepsTheFormerContent() {
+		repository.insertAll(NormalizedTable.LIBELLE, List.of(new NormalizedRow(7, "ancien", 1, "Ancien")));
+
+		try (NormalizedRowBulkRepository.Rebuild rebuild = repository.rebuild(NormalizedTable.LIBELLE)) {
+			rebuild.insertAll(List.of(new NormalizedRow(1, "nouveau", 1, "Nouveau")));
+		}
+
+		List<String> rows = jdbcTemplate.query(
+				"SELECT id, normalized_libelle FROM " + SCHEMA + ".normalized_libelle ORDER BY id",
+				(rs, i) -> rs.getInt(1) + ":" + rs.getString(2));
+		assertEquals(List.of("7:ancien"), rows);
+	}
+
+	@Test
+	public void testFindChangedPagesTheEditedAndMissingRows() {
+		String source = SCHEMA + "." + NormalizedTable.LIBELLE.getSourceTableName();
+		jdbcTemplate.update("INSERT INTO " + source + " VALUES (1, 'Pédale'), (2, 'pédale'), (3, 'Frein '),"
+				+ " (4, 'Huile'), (5, 'Niveau'), (6, 'Nouveau')");
+		repository.insertAll(NormalizedTable.LIBELLE, List.of(
+				new NormalizedRow(1, "pedale", 1, "Pédale"),
+				new NormalizedRow(2, "pedale", 1, "Pédale"),
+				new NormalizedRow(3, "frein", 1, "Frein"),
+				new NormalizedRow(5, "niveau", 1, "Niveau")));
+
+		// case-only edit, trailing space, missing normalized row; 6 is after the watermark
+		Slice<SourceSentenceDto> first = repository.findChanged(NormalizedTable.LIBELLE, 0, 5, PageRequest.of(0, 2));
+		assertEquals(List.of(new SourceSentenceDto(2, "pédale"), new SourceSentenceDto(3, "Frein ")),
+				first.getContent());
+		assertTrue(first.hasNext());
+
+		Slice<SourceSentenceDto> second = repository.findChanged(NormalizedTable.LIBELLE, 3, 5, PageRequest.of(0, 2));
+		assertEquals(List.of(new SourceSentenceDto(4, "Huile")), second.getContent());
+		assertFalse(second.hasNext());
+		assertEquals(3, repository.countChanged(NormalizedTable.LIBELLE, 5));
+	}
+
+	@Test
+	public void testReplaceAllUpsertsUpToTheWatermark() {
+		assertNull(repository.findMaxId(NormalizedTable.LIBELLE_EXTRA));
+
+		repository.insertAll(NormalizedTable.LIBELLE_EXTRA, List.of(
+				new NormalizedRow(1, "un", 1, "Un"),
+				new NormalizedRow(2, "deux", 1, "Deux")));
+		Integer watermark = repository.findMaxId(NormalizedTable.LIBELLE_EXTRA);
+		assertEquals(2, watermark);
+
+		// row 2 changed, row 3 is new
+		repository.replaceAll(NormalizedTable.LIBELLE_EXTRA, List.of(
+				new NormalizedRow(2, "deux fois", 2, "Deux fois"),
+				new NormalizedRow(3, "trois", 1, "Trois")), watermark);
+
+		List<String> rows = jdbcTemplate.query(
+				"SELECT id, normalized_libelle FROM " + SCHEMA + ".normalized_libelle_extra ORDER BY id",
+				(rs, i) -> rs.getInt(1) + ":" + rs.getString(2));
+		assertEquals(List.of("1:un", "2:deux fois", "3:trois"), rows);
+		assertEquals(3, repository.findMaxId(NormalizedTable.LIBELLE_EXTRA));
+	}
+}
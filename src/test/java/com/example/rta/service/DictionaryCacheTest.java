@@ -0,0 +1,102 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import com.example.rta.model.repository.NormalizedRowBulkRepository;
+import com.example.rta.model.repository.NormalizedTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DictionaryCacheTest {
+	private static final long MB = 1024 * 1024;
+
+	private DictionaryCache cache;
+	private volatile long rowCount = 4;
+	private volatile Integer maxId = 7;
+
+	@BeforeEach
+	public void setUp() {
+		RtaProperties properties = new RtaProperties();
+		properties.getDictionary().setCacheMemoryMb(10);
+
+		// only the fingerprint queries are used
+		NormalizedRowBulkRepository tables = new NormalizedRowBulkRepository(null, null, "", "") {
+			@Override
+			public long countRows(NormalizedTable table) {
+				return rowCount;
+			}
+
+			@Override
+			public Integer findMaxId(NormalizedTable table) {
+				return maxId;
+			}
+		};
+		cache = new DictionaryCache(tables, properties);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		cache.shutdown();
+	}
+
+	@Test
+	public void testReusedUntilTheTableChanges() {
+		AtomicInteger loads = new AtomicInteger();
+		List<NormalizedTable> libelle = List.of(NormalizedTable.LIBELLE);
+
+		assertEquals("v1", cache.get("libelle", libelle, () -> load(loads, "v1"), value -> MB));
+		assertEquals("v1", cache.get("libelle", libelle, () -> load(loads, "v2"), value -> MB));
+		assertEquals(1, loads.get());
+
+		rowCount = 5;
+		assertEquals("v3", cache.get("libelle", libelle, () -> load(loads, "v3"), value -> MB));
+		assertEquals("v3", cache.get("libelle", libelle, () -> load(loads, "v4"), value -> MB));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testRefreshedInTheBackgroundOnceTheTableWasRewritten() {
+		AtomicInteger loads = new AtomicInteger();
+		List<NormalizedTable> libelle = List.of(NormalizedTable.LIBELLE);
+		Supplier<String> loader = () -> load(loads, "v" + (loads.get() + 1));
+		assertEquals("v1", cache.get("libelle", libelle, loader, value -> MB));
+
+		// same fingerprint, new content: only the rewriting job can tell
+		cache.refresh(NormalizedTable.LIBELLE_EXTRA).join();
+		assertEquals(1, loads.get());
+		cache.refresh(NormalizedTable.LIBELLE).join();
+
+		assertEquals("v2", cache.get("libelle", libelle, loader, value -> MB));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testEvictsTheLeastRecentlyUsedOverTheBudget() {
+		AtomicInteger loads = new AtomicInteger();
+		List<NormalizedTable> libelle = List.of(NormalizedTable.LIBELLE);
+
+		cache.get("a", libelle, () -> load(loads, "a"), value -> 4 * MB);
+		cache.get("b", libelle, () -> load(loads, "b"), value -> 4 * MB);
+		cache.get("a", libelle, () -> load(loads, "a"), value -> 4 * MB);
+		// b is the least recently used
+		cache.get("c", libelle, () -> load(loads, "c"), value -> 4 * MB);
+		assertEquals(3, loads.get());
+
+		cache.get("a", libelle, () -> load(loads, "a"), value -> 4 * MB);
+		cache.get("c", libelle, () -> load(loads, "c"), value -> 4 * MB);
+		assertEquals(3, loads.get());
+		cache.get("b", libelle, () -> load(loads, "b"), value -> 4 * MB);
+		assertEquals(4, loads.get());
+	}
+
+	private static String load(AtomicInteger loads, String value) {
+		loads.incrementAndGet();
+		return value;
+	}
+}
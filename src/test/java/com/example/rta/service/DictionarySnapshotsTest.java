@@ -0,0 +1,105 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import com.example.rta.dto.NormalizedSentenceDto;
+import com.example.rta.model.repository.NormalizedRowBulkRepository;
+import com.example.rta.model.repository.NormalizedTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import util.PhraseDictionary;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DictionarySnapshotsTest {
+	private static final List<NormalizedSentenceDto> SENTENCES = List.of(
+			new NormalizedSentenceDto(3, "pedale de frein"),
+			new NormalizedSentenceDto(1, null),
+			new NormalizedSentenceDto(2, ""),
+			new NormalizedSentenceDto(7, "œil 𐐀 \uD800 été"));
+
+	private Path directory;
+	private DictionarySnapshots snapshots;
+	private long rowCount = 4;
+	private Integer maxId = 7;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("snapshots");
+		RtaProperties properties = new RtaProperties();
+		properties.getDictionary().setSnapshotDirectory(directory.toString());
+
+		// only the fingerprint queries are used
+		NormalizedRowBulkRepository tables = new NormalizedRowBulkRepository(null, null, "", "") {
+			@Override
+			public long countRows(NormalizedTable table) {
+				return rowCount;
+			}
+
+			@Override
+			public Integer findMaxId(NormalizedTable table) {
+				return maxId;
+			}
+		};
+		snapshots = new DictionarySnapshots(tables, properties);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	public void testSentencesReadBackUntilTheTableChanges() {
+		AtomicInteger loads = new AtomicInteger();
+
+		assertEquals(SENTENCES, snapshots.sentences(2, () -> load(loads, SENTENCES)));
+		assertEquals(SENTENCES, snapshots.sentences(2, () -> load(loads, List.of())));
+		assertEquals(1, loads.get());
+
+		// another word count has its own snapshot
+		assertEquals(List.of(), snapshots.sentences(3, () -> load(loads, List.of())));
+		assertEquals(2, loads.get());
+
+		maxId = 8;
+		assertEquals(List.of(), snapshots.sentences(2, () -> load(loads, List.of())));
+		assertEquals(3, loads.get());
+	}
+
+	@Test
+	public void testDictionaryMappedUntilInvalidated() {
+		AtomicInteger loads = new AtomicInteger();
+
+		PhraseDictionary built = snapshots.phraseDictionary(NormalizedTable.LIBELLE,
+				() -> load(loads, PhraseDictionary.builder().put("pédale de frein", 42).build(false)));
+		PhraseDictionary mapped = snapshots.phraseDictionary(NormalizedTable.LIBELLE,
+				() -> load(loads, PhraseDictionary.builder().build(false)));
+		assertEquals(1, loads.get());
+		assertEquals(42, built.get("pédale de frein", -1));
+		assertEquals(42, mapped.get("pédale de frein", -1));
+
+		// updates in place keep the fingerprint: the normalize job drops the snapshot
+		snapshots.invalidate(NormalizedTable.LIBELLE);
+		PhraseDictionary rebuilt = snapshots.phraseDictionary(NormalizedTable.LIBELLE,
+				() -> load(loads, PhraseDictionary.builder().build(false)));
+		assertEquals(2, loads.get());
+		assertEquals(-1, rebuilt.get("pédale de frein", -1));
+	}
+
+	private static <T> T load(AtomicInteger loads, T value) {
+		loads.incrementAndGet();
+		return value;
+	}
+}
@@ -0,0 +1,78 @@
+package com.example.rta.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JobCheckpointTest {
+	private Path directory;
+	private Path file;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("checkpoint");
+		file = directory.resolve("job.checkpoint");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	public void testSavedValuesLoadBack() throws IOException {
+		assertTrue(JobCheckpoint.load(file).isEmpty());
+
+		JobCheckpoint.load(file).set("phase", "libelle").set("lastId", -12).set("offset.out.csv", 1L << 40).save();
+
+		JobCheckpoint checkpoint = JobCheckpoint.load(file);
+		assertFalse(checkpoint.isEmpty());
+		assertEquals("libelle", checkpoint.get("phase"));
+		assertEquals(-12, checkpoint.getInt("lastId"));
+		assertEquals(1L << 40, checkpoint.getLong("offset.out.csv"));
+		assertNull(checkpoint.get("wordCount"));
+	}
+
+	@Test
+	public void testSaveReplacesTheFormerCheckpointWhole() throws IOException {
+		JobCheckpoint checkpoint = JobCheckpoint.load(file);
+		checkpoint.set("lastId", 10).save();
+		// the temporary file of a save that died before its move
+		Files.writeString(directory.resolve("job.checkpoint.tmp"), "lastId=");
+		assertEquals(10, JobCheckpoint.load(file).getInt("lastId"));
+
+		checkpoint.set("lastId", 20).set("phase", "libelle").save();
+
+		JobCheckpoint loaded = JobCheckpoint.load(file);
+		assertEquals(20, loaded.getInt("lastId"));
+		assertEquals("libelle", loaded.get("phase"));
+		assertFalse(Files.exists(directory.resolve("job.checkpoint.tmp")));
+	}
+
+	@Test
+	public void testDeletedOnceTheJobCompleted() throws IOException {
+		JobCheckpoint checkpoint = JobCheckpoint.load(file);
+		checkpoint.set("lastId", 10).save();
+
+		checkpoint.delete();
+
+		assertTrue(checkpoint.isEmpty());
+		assertFalse(Files.exists(file));
+		assertTrue(JobCheckpoint.load(file).isEmpty());
+	}
+}
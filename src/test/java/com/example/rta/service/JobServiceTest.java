@@ -0,0 +1,50 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import com.example.rta.dto.JobStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JobServiceTest {
+
+	@Test
+	public void testDuplicateRefusedWhileQueuedOrRunning() {
+		RtaProperties properties = new RtaProperties();
+		properties.getJobs().setMaxConcurrent(1);
+		JobService jobService = new JobService(properties);
+		CountDownLatch release = new CountDownLatch(1);
+
+		try {
+			jobService.submit("generateBlocContenuRelationships.shard-0-of-2", progress -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			// the other shard waits for the only job thread
+			JobStatus queued = jobService.submit("generateBlocContenuRelationships.shard-1-of-2", progress -> {
+			});
+
+			assertThrows(IllegalStateException.class, () -> jobService.submit(
+					"generateBlocContenuRelationships.shard-0-of-2", progress -> {
+					}));
+			assertThrows(IllegalStateException.class, () -> jobService.submit(
+					"generateBlocContenuRelationships.shard-1-of-2", progress -> {
+					}));
+
+			// cancelled while queued: submitted again right away
+			assertEquals(JobStatus.JobState.CANCELLED, jobService.cancel(queued.id()).orElseThrow().state());
+			assertEquals(JobStatus.JobState.QUEUED, jobService.submit("generateBlocContenuRelationships.shard-1-of-2",
+					progress -> {
+					}).state());
+		} finally {
+			release.countDown();
+			jobService.shutdown();
+		}
+	}
+}
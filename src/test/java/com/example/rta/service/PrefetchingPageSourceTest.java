@@ -0,0 +1,73 @@
+package com.example.rta.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PrefetchingPageSourceTest {
+
+	@Test
+	public void testServesThePagesInOrderThenTheEnd() {
+		AtomicBoolean closed = new AtomicBoolean();
+		PageSource<Integer> rows = new PageSource<>() {
+			private final PageSource<Integer> pages = PageSource.stream(IntStream.range(0, 10_000).boxed(), 333);
+
+			@Override
+			public List<Integer> nextPage() {
+				return pages.nextPage();
+			}
+
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+
+		List<Integer> read = new ArrayList<>();
+		// a cap below one page: still one page ahead
+		try (PageSource<Integer> pages = new PrefetchingPageSource<>(rows, 3, 100, row -> 16)) {
+			List<Integer> page;
+			while (!(page = pages.nextPage()).isEmpty()) {
+				read.addAll(page);
+			}
+			assertTrue(pages.nextPage().isEmpty());
+		}
+
+		assertEquals(IntStream.range(0, 10_000).boxed().toList(), read);
+		assertTrue(closed.get());
+	}
+
+	@Test
+	public void testRethrowsAFailedFetchInPlaceOfItsPage() {
+		AtomicInteger fetches = new AtomicInteger();
+		PageSource<Integer> failing = () -> {
+			if (fetches.incrementAndGet() == 3) throw new IllegalStateException("connection lost");
+			return List.of(fetches.get());
+		};
+
+		try (PageSource<Integer> pages = new PrefetchingPageSource<>(failing, 2, Long.MAX_VALUE, row -> 16)) {
+			assertEquals(List.of(1), pages.nextPage());
+			assertEquals(List.of(2), pages.nextPage());
+			assertEquals("connection lost", assertThrows(IllegalStateException.class, pages::nextPage).getMessage());
+		}
+	}
+
+	@Test
+	public void testRethrowsAnErrorOfTheFetch() {
+		PageSource<Integer> failing = () -> {
+			throw new OutOfMemoryError("Java heap space");
+		};
+
+		try (PageSource<Integer> pages = new PrefetchingPageSource<>(failing, 1, Long.MAX_VALUE, row -> 16)) {
+			assertEquals("Java heap space", assertThrows(OutOfMemoryError.class, pages::nextPage).getMessage());
+		}
+	}
+}
@@ -1,63 +1,318 @@
 package com.example.rta.service;
 
+import com.example.rta.config.RtaProperties;
+import com.example.rta.dto.BlocXmlDto;
+import com.example.rta.dto.IdRange;
 import com.example.rta.dto.NormalizedSentenceDto;
+import com.example.rta.dto.OriginalLibelleDto;
+import com.example.rta.dto.Shard;
+import com.example.rta.model.repository.BlocContenuRepository;
+import com.example.rta.model.repository.NormalizedContEditorialSentenceRepository;
+import com.example.rta.model.repository.NormalizedLibelleExtraRepository;
+import com.example.rta.model.repository.NormalizedLibelleRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import util.AhoCorasick;
 
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ReportServiceTest {
+	private static final String[] WORDS = {
+			"appuyer", "sur", "la", "pedale", "de", "frein", "controler", "le", "niveau", "d", "huile", "moteur"
+	};
+	private static final List<NormalizedSentenceDto> SENTENCES = List.of(
+			new NormalizedSentenceDto(1, "pedale de frein"), new NormalizedSentenceDto(2, "appuyer sur la pedale"),
+			new NormalizedSentenceDto(3, "niveau d huile"), new NormalizedSentenceDto(4, "huile moteur"),
+			new NormalizedSentenceDto(5, "controler le niveau d huile moteur"), new NormalizedSentenceDto(6, "frein"));
 
-	private static List<Integer> invokePrivateRemove(ReportService svc, List<NormalizedSentenceDto> matches) throws Exception {
-		Method m = ReportService.class.getDeclaredMethod("removeDuplicatedMatchesAndGetIds", List.class);
-		m.setAccessible(true);
-		return (List<Integer>) m.invoke(svc, matches);
+	private Path directory;
+	private List<NormalizedSentenceDto> libelles;
+	private List<NormalizedSentenceDto> libelleExtras;
+	private List<BlocXmlDto> blocs;
+	private final List<AutoCloseable> services = new ArrayList<>();
+
+	// page fetches of the fake tables during a run, and the one at which the run is cancelled (0: never)
+	private JobProgress progress;
+	private int fetches;
+	private int cancelAtFetch;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("report");
+		Random random = new Random(42);
+		// three pages of each table for word count 2 (PAGE_SIZE and SMALL_PAGE_SIZE rows), sparse ids
+		libelleExtras = rows(random, 100_000, 3);
+		libelles = rows(random, 100_000, 2);
+		blocs = new ArrayList<>();
+		for (int i = 1; i <= 25_000; i++) {
+			blocs.add(new BlocXmlDto(i * 2, "<bloc><titre>" + phrase(random) + "</titre><p>" + phrase(random)
+					+ "</p></bloc>"));
+		}
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		for (AutoCloseable service : services) {
+			service.close();
+		}
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private static List<Integer> find(ReportService svc, String libelle, List<NormalizedSentenceDto> sentences) {
+		AhoCorasick automaton = new AhoCorasick(sentences.stream().map(NormalizedSentenceDto::normalizedSentence).toList());
+		return svc.findSentenceMatches(libelle, sentences, automaton);
 	}
 
 	@Test
-	public void testEmptyList() throws Exception {
-		ReportService svc = new ReportService(null, null, null, null);
-		List<NormalizedSentenceDto> matches = new ArrayList<>();
-		List<Integer> res = invokePrivateRemove(svc, matches);
+	public void testEmptyList() {
+		ReportService svc = new ReportService(null, null, null, null, new RtaProperties(),
+				new PipelineMetrics(new SimpleMeterRegistry()), null, null, null);
+		List<NormalizedSentenceDto> sentences = List.of(new NormalizedSentenceDto(1, "pedale de frein"));
+		List<Integer> res = find(svc, "appuyer sur le bouton", sentences);
 		assertNull(res);
 	}
 
 	@Test
-	public void testSingleWithId() throws Exception {
-		ReportService svc = new ReportService(null, null, null, null);
-		List<NormalizedSentenceDto> matches = List.of(new NormalizedSentenceDto(42, "hello"));
-		List<Integer> res = invokePrivateRemove(svc, matches);
+	public void testSingleWithId() {
+		ReportService svc = new ReportService(null, null, null, null, new RtaProperties(),
+				new PipelineMetrics(new SimpleMeterRegistry()), null, null, null);
+		List<NormalizedSentenceDto> sentences = List.of(new NormalizedSentenceDto(42, "hello"));
+		List<Integer> res = find(svc, "hello world", sentences);
 		assertEquals(42, res.getFirst());
 	}
 
 	@Test
-	public void testContainedMatchesFiltered() throws Exception {
-		ReportService svc = new ReportService(null, null, null, null);
+	public void testContainedMatchesFiltered() {
+		ReportService svc = new ReportService(null, null, null, null, new RtaProperties(),
+				new PipelineMetrics(new SimpleMeterRegistry()), null, null, null);
 		// two matches, one contained in the other: keep only the longer (id=2)
 		NormalizedSentenceDto shortOne = new NormalizedSentenceDto(1, "pedale de frein");
 		NormalizedSentenceDto longOne = new NormalizedSentenceDto(2, "appuyer sur la pedale de frein");
-		List<NormalizedSentenceDto> matches = new ArrayList<>(List.of(shortOne, longOne));
-		List<Integer> res = invokePrivateRemove(svc, matches);
+		List<Integer> res = find(svc, "appuyer sur la pedale de frein", List.of(shortOne, longOne));
 		assertEquals(1, res.size());
 		assertEquals(2, res.getFirst());
 	}
 
 	@Test
-	public void testMultipleNonOverlappingKeptInOrder() throws Exception {
-		ReportService svc = new ReportService(null, null, null, null);
+	public void testContainedSentenceFilteredEvenWhenAlsoFoundAlone() {
+		ReportService svc = new ReportService(null, null, null, null, new RtaProperties(),
+				new PipelineMetrics(new SimpleMeterRegistry()), null, null, null);
+		// the short sentence also appears outside the long one, but it is still a substring of a longer match
+		NormalizedSentenceDto shortOne = new NormalizedSentenceDto(1, "pedale de frein");
+		NormalizedSentenceDto longOne = new NormalizedSentenceDto(2, "appuyer sur la pedale de frein");
+		List<Integer> res = find(svc, "pedale de frein puis appuyer sur la pedale de frein",
+				List.of(shortOne, longOne));
+		assertEquals(List.of(2), res);
+	}
+
+	@Test
+	public void testMultipleNonOverlappingKeptInOrder() {
+		ReportService svc = new ReportService(null, null, null, null, new RtaProperties(),
+				new PipelineMetrics(new SimpleMeterRegistry()), null, null, null);
 		NormalizedSentenceDto a = new NormalizedSentenceDto(1, "bbbb");
 		NormalizedSentenceDto b = new NormalizedSentenceDto(2, "aaaaa");
 		NormalizedSentenceDto c = new NormalizedSentenceDto(3, "ccx");
 		NormalizedSentenceDto d = new NormalizedSentenceDto(4, "bbb");
 		NormalizedSentenceDto e = new NormalizedSentenceDto(5, "ccx");
-		List<NormalizedSentenceDto> matches = new ArrayList<>(List.of(a, b, c, d, e));
 
-		List<Integer> res = invokePrivateRemove(svc, matches);
+		List<Integer> res = find(svc, "ccx bbbb aaaaa", List.of(a, b, c, d, e));
 		// sorted by length desc -> aaaaa (5), bbbb (4), ccx (3) => ids "2,1,3"; 2 results were filtered
 		assertEquals(List.of(2, 1, 3), res);
 	}
+
+	@Test
+	public void testSentencesJobResumedInEitherPhaseWritesTheLinesOfAnUninterruptedRun() throws Exception {
+		Path reference = Files.createDirectory(directory.resolve("reference"));
+		generateSentences(reference, 2, 0);
+		assertTrue(Files.readAllLines(reference.resolve("libelle_matches_extra.csv")).size() > 1000);
+		assertTrue(Files.readAllLines(reference.resolve("libelle_matches.csv")).size() > 1000);
+
+		// the libelle extra pages are fetched 1 to 3, the libelle ones 4 to 6: stopped after the first libelle extra
+		// page, right after the libelle extra phase, and after the first libelle page
+		String[] phases = {"libelle_extra", "libelle", "libelle"};
+		int[] cancelAt = {2, 4, 5};
+		for (int i = 0; i < cancelAt.length; i++) {
+			Path resumed = Files.createDirectory(directory.resolve("resumed-" + cancelAt[i]));
+			int stopAt = cancelAt[i];
+			assertThrows(RuntimeException.class, () -> generateSentences(resumed, 2, stopAt));
+			Path checkpoint = resumed.resolve("sentences_relationships.checkpoint");
+			assertEquals(phases[i], JobCheckpoint.load(checkpoint).get("phase"));
+			// lines a crashed run leaves after the checkpointed offsets
+			append(resumed.resolve("libelle_matches_extra.csv"), "7;");
+			append(resumed.resolve("libelle_matches.csv"), "8;1");
+
+			generateSentences(resumed, 2, 0);
+
+			assertSameLines(reference, resumed, "libelle_matches_extra.csv");
+			assertSameLines(reference, resumed, "libelle_matches.csv");
+			assertFalse(Files.exists(checkpoint));
+		}
+	}
+
+	@Test
+	public void testSentencesCheckpointOfAnotherWordCountIsDiscarded() throws Exception {
+		Path reference = Files.createDirectory(directory.resolve("reference"));
+		generateSentences(reference, 3, 0);
+
+		Path restarted = Files.createDirectory(directory.resolve("restarted"));
+		assertThrows(RuntimeException.class, () -> generateSentences(restarted, 2, 5));
+		generateSentences(restarted, 3, 0);
+
+		assertSameLines(reference, restarted, "libelle_matches_extra.csv");
+		assertSameLines(reference, restarted, "libelle_matches.csv");
+	}
+
+	@Test
+	public void testBlocContenuJobResumedWritesTheLinesAndCountsOfAnUninterruptedRun() throws Exception {
+		Path reference = Files.createDirectory(directory.resolve("reference"));
+		generateBlocContenu(reference, 0);
+		assertTrue(Files.readAllLines(reference.resolve("bloc_contenu_not_found.csv")).size() > 100);
+
+		Path resumed = Files.createDirectory(directory.resolve("resumed"));
+		// stopped after the first two of the three pages
+		assertThrows(CancellationException.class, () -> generateBlocContenu(resumed, 3));
+		append(resumed.resolve("bloc_contenu_out.csv"), "9;9;");
+		append(resumed.resolve("bloc_contenu_not_found_occurrences.csv"), "9;lost");
+		generateBlocContenu(resumed, 0);
+
+		assertSameLines(reference, resumed, "bloc_contenu_out.csv");
+		assertSameLines(reference, resumed, "bloc_contenu_not_found.csv");
+		assertFalse(Files.exists(resumed.resolve("bloc_contenu_not_found_occurrences.csv")));
+		assertFalse(Files.exists(resumed.resolve("bloc_contenu_relationships.checkpoint")));
+	}
+
+	private void generateSentences(Path output, int wordCount, int cancelAt) {
+		start(cancelAt);
+		reportService().generateSentencesRelationships(output, wordCount, Shard.ALL, progress);
+	}
+
+	private void generateBlocContenu(Path output, int cancelAt) throws Exception {
+		start(cancelAt);
+		reportService().generateBlocContenuRelationships(output, Shard.ALL, progress);
+	}
+
+	private void start(int cancelAt) {
+		progress = new JobProgress();
+		fetches = 0;
+		cancelAtFetch = cancelAt;
+	}
+
+	// Over the fake tables; pages fetched on demand, so that a run stops at a known page, and written in page order
+	private ReportService reportService() {
+		RtaProperties properties = new RtaProperties();
+		properties.getRead().setPrefetchPages(0);
+		properties.getWrite().setOrdered(true);
+		properties.getDictionary().setCacheMemoryMb(0);
+		properties.getDictionary().setSnapshotDirectory("");
+
+		BatchScheduler scheduler = new BatchScheduler(properties);
+		DictionaryCache cache = new DictionaryCache(null, properties);
+		services.add(scheduler::shutdown);
+		services.add(cache::shutdown);
+		return new ReportService(
+				repository(BlocContenuRepository.class, (proxy, method, args) -> switch (method.getName()) {
+					case "findByIdGreaterThanAndIdLessThanEqual" ->
+							page(inRange(blocs.stream(), BlocXmlDto::id, args[0], args[1]), (Pageable) args[2]);
+					case "countByIdGreaterThanAndIdLessThanEqual" ->
+							inRange(blocs.stream(), BlocXmlDto::id, args[0], args[1]).count();
+					default -> throw new UnsupportedOperationException(method.getName());
+				}),
+				repository(NormalizedContEditorialSentenceRepository.class, (proxy, method, args) ->
+						SENTENCES.stream().filter(sentence -> words(sentence) >= (int) args[0]).toList()),
+				repository(NormalizedLibelleRepository.class, (proxy, method, args) -> table(libelles, method.getName(),
+						args)),
+				repository(NormalizedLibelleExtraRepository.class, (proxy, method, args) -> table(libelleExtras,
+						method.getName(), args)),
+				properties, new PipelineMetrics(new SimpleMeterRegistry()), new DictionarySnapshots(null, properties),
+				cache, scheduler);
+	}
+
+	// The queries of a normalized libelle table
+	private Object table(List<NormalizedSentenceDto> rows, String query, Object[] args) {
+		return switch (query) {
+			case "findByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual" -> page(inRange(rows.stream()
+					.filter(row -> words(row) >= (int) args[0]), NormalizedSentenceDto::id, args[1], args[2]),
+					(Pageable) args[3]);
+			case "countByWordCountGreaterThanEqualAndIdGreaterThanAndIdLessThanEqual" -> inRange(rows.stream()
+					.filter(row -> words(row) >= (int) args[0]), NormalizedSentenceDto::id, args[1], args[2]).count();
+			case "findIdRange" -> new IdRange(rows.getFirst().id(), rows.getLast().id());
+			case "streamOriginalLibelles" ->
+					rows.stream().map(row -> new OriginalLibelleDto(row.id(), row.normalizedSentence()));
+			default -> throw new UnsupportedOperationException(query);
+		};
+	}
+
+	private <T> Slice<T> page(Stream<T> rows, Pageable pageable) {
+		if (++fetches == cancelAtFetch) progress.cancel();
+		List<T> content = rows.limit(pageable.getPageSize() + 1L).toList();
+		boolean hasNext = content.size() > pageable.getPageSize();
+		return new SliceImpl<>(hasNext ? content.subList(0, pageable.getPageSize()) : content, pageable, hasNext);
+	}
+
+	// rows after lastId up to maxId, the rows being in id order
+	private static <T> Stream<T> inRange(Stream<T> rows, Function<T, Integer> id, Object lastId, Object maxId) {
+		return rows.filter(row -> id.apply(row) > (int) lastId && id.apply(row) <= (int) maxId);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> R repository(Class<R> type, InvocationHandler handler) {
+		return (R) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+	}
+
+	private static List<NormalizedSentenceDto> rows(Random random, int count, int idStep) {
+		List<NormalizedSentenceDto> rows = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			rows.add(new NormalizedSentenceDto(i * idStep, phrase(random)));
+		}
+		return rows;
+	}
+
+	// 1 to 6 words, a few of them unknown so that some bloc phrases are found nowhere
+	private static String phrase(Random random) {
+		StringBuilder phrase = new StringBuilder();
+		for (int i = random.nextInt(6); i >= 0; i--) {
+			if (!phrase.isEmpty()) phrase.append(' ');
+			phrase.append(random.nextInt(40) == 0 ? "mot" + random.nextInt(50) : WORDS[random.nextInt(WORDS.length)]);
+		}
+		return phrase.toString();
+	}
+
+	private static int words(NormalizedSentenceDto row) {
+		return row.normalizedSentence().split(" ").length;
+	}
+
+	private static void append(Path file, String text) throws IOException {
+		Files.writeString(file, text, StandardOpenOption.APPEND);
+	}
+
+	private static void assertSameLines(Path expected, Path actual, String name) throws IOException {
+		assertEquals(Files.readAllLines(expected.resolve(name)), Files.readAllLines(actual.resolve(name)), name);
+	}
 }
@@ -0,0 +1,105 @@
+package com.example.rta.service;
+
+import com.example.rta.config.RtaProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ShardMergerTest {
+	private Path directory;
+	private ShardMerger merger;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("shards");
+		merger = new ShardMerger(new RtaProperties());
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	public void testMergesContiguousShardsInIdOrder() throws IOException {
+		writeShard("libelle_matches.shard-1-of-2.csv", "100;2147483647", "libelleId;cont_editorial_id", "150;11");
+		writeShard("libelle_matches.shard-0-of-2.csv", "-2147483648;99", "libelleId;cont_editorial_id", "1;10", "2;10");
+		writeShard("bloc_contenu_not_found.shard-0-of-2.csv", "-2147483648;99", "count;first_bloc_id;phrase",
+				"2;5;pédale;frein", "1;9;huile");
+		writeShard("bloc_contenu_not_found.shard-1-of-2.csv", "100;2147483647", "count;first_bloc_id;phrase",
+				"3;120;pédale;frein");
+
+		merger.mergeShards(directory, new JobProgress());
+
+		assertEquals(List.of("libelleId;cont_editorial_id", "1;10", "2;10", "150;11"),
+				Files.readAllLines(directory.resolve("libelle_matches.csv")));
+		assertEquals(List.of("count;first_bloc_id;phrase", "5;5;pédale;frein", "1;9;huile"),
+				Files.readAllLines(directory.resolve("bloc_contenu_not_found.csv")));
+	}
+
+	@Test
+	public void testRefusesOverlappingOrMissingRanges() throws IOException {
+		// the table grew between the instances: the second one split it differently
+		writeShard("bloc_contenu_out.shard-0-of-2.csv", "-2147483648;99", "blocXmlId;libelleId;libelleExtraId", "1;2;");
+		writeShard("bloc_contenu_out.shard-1-of-2.csv", "90;2147483647", "blocXmlId;libelleId;libelleExtraId", "95;3;");
+		assertThrows(IllegalStateException.class, () -> merger.mergeShards(directory, new JobProgress()));
+
+		writeShard("bloc_contenu_out.shard-1-of-2.csv", "120;2147483647", "blocXmlId;libelleId;libelleExtraId",
+				"125;3;");
+		assertThrows(IllegalStateException.class, () -> merger.mergeShards(directory, new JobProgress()));
+		assertFalse(Files.exists(directory.resolve("bloc_contenu_out.csv")));
+	}
+
+	@Test
+	public void testRefusesAShardWithoutItsRange() throws IOException {
+		writeShard("libelle_matches_extra.ids-1-100.csv", "1;100", "libelleId;cont_editorial_id", "1;10");
+		Files.writeString(directory.resolve("libelle_matches_extra.ids-101-200.csv"),
+				"libelleId;cont_editorial_id\n150;11\n");
+
+		assertThrows(IllegalStateException.class, () -> merger.mergeShards(directory, new JobProgress()));
+	}
+
+	@Test
+	public void testMergesTheNotFoundReportsWithinTheMemoryBudget() throws IOException {
+		RtaProperties properties = new RtaProperties();
+		// no room for exact counts: only the heavy hitters are kept
+		properties.getNotFound().setMemoryBudgetMb(0);
+		properties.getNotFound().setHeavyHitters(3);
+		List<String> first = new ArrayList<>(List.of("count;first_bloc_id;phrase", "60;7;frein", "40;3;huile"));
+		List<String> second = new ArrayList<>(List.of("count;first_bloc_id;phrase", "50;120;frein", "30;101;huile"));
+		for (int i = 0; i < 500; i++) {
+			first.add("1;" + (i + 1) + ";rare " + i);
+			second.add("1;" + (i + 100) + ";rare " + (i + 500));
+		}
+		writeShard("bloc_contenu_not_found.shard-0-of-2.csv", "-2147483648;99", first.toArray(String[]::new));
+		writeShard("bloc_contenu_not_found.shard-1-of-2.csv", "100;2147483647", second.toArray(String[]::new));
+
+		new ShardMerger(properties).mergeShards(directory, new JobProgress());
+
+		List<String> merged = Files.readAllLines(directory.resolve("bloc_contenu_not_found.csv"));
+		// the header, the phrase that reached the budget and the heavy hitters
+		assertEquals(5, merged.size());
+		assertEquals(List.of("count;first_bloc_id;phrase", "110;7;frein", "70;3;huile"), merged.subList(0, 3));
+	}
+
+	private void writeShard(String name, String range, String... lines) throws IOException {
+		Files.write(directory.resolve(name), List.of(lines));
+		Files.writeString(directory.resolve(name + ReportService.RANGE_EXTENSION), range);
+	}
+}
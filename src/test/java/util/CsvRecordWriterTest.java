@@ -0,0 +1,113 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CsvRecordWriterTest {
+
+	@Test
+	public void testBinaryRecordsReadBackInPlace() throws IOException {
+		Path file = Files.createTempFile("records", ".bin");
+		try {
+			try (CsvRecordWriter writer = new CsvRecordWriter(file, "ignored", 3, ';', RecordFormat.BINARY)) {
+				for (int i = 0; i < 100_000; i++) {
+					writer.write(i, -i, i % 2 == 0 ? CsvRecordWriter.EMPTY : i * 3);
+				}
+			}
+
+			try (BinaryRecordReader reader = BinaryRecordReader.open(file)) {
+				assertEquals(3, reader.columns());
+				assertEquals(100_000, reader.size());
+				for (int i = 0; i < 100_000; i++) {
+					assertEquals(i, reader.get(i, 0));
+					assertEquals(-i, reader.get(i, 1));
+					assertEquals(i % 2 == 0 ? CsvRecordWriter.EMPTY : i * 3, reader.get(i, 2));
+				}
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testGzipFileResumedAtASyncOffsetStaysReadable() throws IOException {
+		Path file = Files.createTempFile("records", ".csv.gz");
+		try {
+			long offset;
+			try (CsvRecordWriter writer = new CsvRecordWriter(file, "a;b", 2, ';', RecordFormat.CSV_GZIP)) {
+				writer.write(1, 2);
+				writer.writeLine("é");
+				offset = writer.sync();
+				// lost with the crash of the run
+				writer.write(3, 4);
+			}
+			try (CsvRecordWriter writer = CsvRecordWriter.resume(file, 2, ';', RecordFormat.CSV_GZIP, offset)) {
+				writer.write(5, CsvRecordWriter.EMPTY);
+			}
+
+			String text;
+			try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+				text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			}
+			String separator = System.lineSeparator();
+			assertEquals("a;b" + separator + "1;2" + separator + "é" + separator + "5;" + separator, text);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testParkedWriterWakesUpForTheNextRecords() throws Exception {
+		Path file = Files.createTempFile("records", ".csv");
+		try {
+			List<String> expected = new ArrayList<>(List.of("a;b"));
+			try (CsvRecordWriter writer = new CsvRecordWriter(file, "a;b", 2, ';')) {
+				for (int i = 0; i < 50; i++) {
+					// long enough for the writer thread to park
+					Thread.sleep(2);
+					writer.write(i, -i);
+					expected.add(i + ";" + -i);
+					// would never return if the record did not wake the writer up
+					writer.sync();
+				}
+
+				// producers publishing while the writer parks
+				Thread[] producers = new Thread[4];
+				for (int p = 0; p < producers.length; p++) {
+					int first = 1000 * (p + 1);
+					producers[p] = Thread.ofPlatform().start(() -> {
+						for (int i = first; i < first + 500; i++) {
+							if (i % 50 == 0) LockSupport.parkNanos(1_000_000);
+							writer.write(i, i);
+						}
+					});
+					for (int i = first; i < first + 500; i++) {
+						expected.add(i + ";" + i);
+					}
+				}
+				for (Thread producer : producers) {
+					producer.join();
+				}
+			}
+
+			List<String> lines = Files.readAllLines(file);
+			assertEquals(expected.subList(0, 51), lines.subList(0, 51));
+			assertEquals(new HashSet<>(expected), new HashSet<>(lines));
+			assertEquals(expected.size(), lines.size());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
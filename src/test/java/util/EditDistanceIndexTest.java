@@ -0,0 +1,115 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class EditDistanceIndexTest {
+	private static final String[] WORDS = {
+			"appuyer", "sur", "la", "pédale", "de", "frein", "contrôler", "le", "niveau", "d'huile", "moteur", "clé",
+			"à", "été", "a", "e"
+	};
+	private static final String ALPHABET = "aeéèiou lrst'-";
+
+	private static int levenshtein(String a, String b) {
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) previous[j] = j;
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			for (int j = 1; j <= b.length(); j++) {
+				int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[b.length()];
+	}
+
+	private static String randomPhrase(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int words = 1 + random.nextInt(5);
+		for (int i = 0; i < words; i++) {
+			if (i > 0) sb.append(' ');
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	// up to 3 random insertions, deletions or substitutions
+	private static String typo(Random random, String phrase) {
+		StringBuilder sb = new StringBuilder(phrase);
+		int edits = random.nextInt(4);
+		for (int i = 0; i < edits; i++) {
+			int at = random.nextInt(sb.length() + 1);
+			char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+			switch (random.nextInt(3)) {
+				case 0 -> sb.insert(at, c);
+				case 1 -> {
+					if (at < sb.length()) sb.deleteCharAt(at);
+				}
+				default -> {
+					if (at < sb.length()) sb.setCharAt(at, c);
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testSameNearestKeyAsFullScan() {
+		Random random = new Random(5);
+		List<String> keys = new ArrayList<>();
+		EditDistanceIndex.Builder builder = EditDistanceIndex.builder(2);
+		for (int i = 0; i < 3000; i++) {
+			String key = randomPhrase(random);
+			keys.add(key);
+			builder.add(key, i, i % 2);
+		}
+		EditDistanceIndex index = builder.build();
+
+		for (int q = 0; q < 5000; q++) {
+			String query = typo(random, keys.get(random.nextInt(keys.size())));
+			int distance = random.nextInt(3);
+
+			// full scan: nearest key, the first one on ties; keys shorter than 3 chars are not indexed
+			int expected = -1;
+			int expectedDistance = distance + 1;
+			for (int i = 0; i < keys.size(); i++) {
+				if (keys.get(i).length() < 3) continue;
+				int d = levenshtein(query, keys.get(i));
+				if (d < expectedDistance) {
+					expected = i;
+					expectedDistance = d;
+				}
+			}
+
+			EditDistanceIndex.Match match = index.findNearest(query, distance);
+			if (expected < 0) {
+				assertNull(match, query);
+			} else {
+				assertEquals(new EditDistanceIndex.Match(expected, expected % 2, expectedDistance), match, query);
+			}
+		}
+	}
+
+	@Test
+	public void testTypoAccentAndSpace() {
+		EditDistanceIndex index = EditDistanceIndex.builder(2)
+				.add("contrôler le niveau d'huile", 1, 0)
+				.add("appuyer sur la pédale de frein", 2, 1)
+				.build();
+
+		assertEquals(new EditDistanceIndex.Match(1, 0, 1), index.findNearest("controler le niveau d'huile", 2));
+		assertEquals(new EditDistanceIndex.Match(2, 1, 2), index.findNearest("appuyer sur la  pedale de frein", 2));
+		assertNull(index.findNearest("appuyer sur la  pedale de frein", 1));
+		assertNull(index.findNearest("vérifier la pression", 2));
+	}
+}
@@ -0,0 +1,89 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ParseXMLTest {
+	private static final String[] TEXTS = {
+			"Appuyer sur la pédale de frein", "contrôler le niveau", " ", "  \n\t ", " ", "a &amp; b", "&lt;x&gt;",
+			"&#233;t&#xE9;", "&quot;q&quot; &apos;", "l'avant", "1,234 et 3.14", "\r\n", "« »", "Σ", "\uD835\uDC00",
+			"<![CDATA[x < y & z]]>", "<![CDATA[  ]]>", "<![CDATA[]]>", "\u00A0"
+	};
+
+	// The extraction as it was implemented before the StAX reader, kept as the reference
+	static List<String> referenceParseXml(String blocXml) throws Exception {
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(blocXml.getBytes(StandardCharsets.UTF_8)));
+		NodeList nodes = (NodeList) XPathFactory.newInstance().newXPath()
+				.evaluate("//text()", doc, XPathConstants.NODESET);
+
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			String text = nodes.item(i).getTextContent();
+			if (!text.trim().isEmpty()) {
+				result.add(text);
+			}
+		}
+		return result;
+	}
+
+	private static void appendContent(StringBuilder sb, Random random, int depth) {
+		int parts = random.nextInt(6);
+		for (int i = 0; i < parts; i++) {
+			switch (random.nextInt(depth < 4 ? 6 : 4)) {
+				case 0, 1 -> sb.append(TEXTS[random.nextInt(TEXTS.length)]);
+				case 2 -> sb.append("<!-- ").append(random.nextInt(100)).append(" -->");
+				case 3 -> sb.append(random.nextBoolean() ? "<br/>" : "<?pi data?>");
+				default -> {
+					sb.append("<p class=\"c").append(depth).append("\">");
+					appendContent(sb, random, depth + 1);
+					sb.append("</p>");
+				}
+			}
+		}
+	}
+
+	private static String generateDocument(Random random) {
+		StringBuilder sb = new StringBuilder();
+		if (random.nextBoolean()) {
+			sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		}
+		sb.append("<bloc>");
+		appendContent(sb, random, 0);
+		return sb.append("</bloc>").toString();
+	}
+
+	@Test
+	public void testGeneratedDocumentsMatchReference() throws Exception {
+		Random random = new Random(20240612);
+
+		for (int i = 0; i < 20_000; i++) {
+			String xml = generateDocument(random);
+			assertEquals(referenceParseXml(xml), ParseXML.parseXml(xml), xml);
+		}
+	}
+
+	@Test
+	public void testExamples() throws Exception {
+		String xml = "<bloc><titre>Frein</titre>\n  <p>Appuyer <b>sur</b> la pédale &amp; relâcher</p><p>  </p></bloc>";
+		assertEquals(List.of("Frein", "Appuyer ", "sur", " la pédale & relâcher"), ParseXML.parseXml(xml));
+		assertEquals(referenceParseXml(xml), ParseXML.parseXml(xml));
+
+		// a run of text and CDATA counts only with a plain text node in it, and only for its first node
+		xml = "<bloc><![CDATA[seul]]><p>a<![CDATA[b]]></p><p><![CDATA[c]]>d</p></bloc>";
+		assertEquals(List.of("a", "c"), ParseXML.parseXml(xml));
+		assertEquals(referenceParseXml(xml), ParseXML.parseXml(xml));
+	}
+}
@@ -0,0 +1,72 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PhraseCounterTest {
+
+	@Test
+	public void testCountsExactlyWithinTheBudget() {
+		PhraseCounter counter = new PhraseCounter(1 << 20, 1 << 10, 10);
+		Map<String, Long> counts = new HashMap<>();
+		Map<String, Integer> firstIds = new HashMap<>();
+		Random random = new Random(3);
+
+		for (int id = 0; id < 20_000; id++) {
+			String phrase = "phrase " + random.nextInt(500);
+			int blocId = 20_000 - id;
+			counter.add(phrase, blocId);
+			counts.merge(phrase, 1L, Long::sum);
+			firstIds.merge(phrase, blocId, Math::min);
+		}
+
+		assertFalse(counter.isApproximate());
+		List<PhraseCounter.Entry> entries = counter.entries();
+		assertEquals(counts.size(), entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			PhraseCounter.Entry entry = entries.get(i);
+			assertEquals(counts.get(entry.phrase()), entry.count(), entry.phrase());
+			assertEquals(firstIds.get(entry.phrase()), entry.firstId(), entry.phrase());
+			if (i > 0) assertTrue(entries.get(i - 1).count() >= entry.count());
+		}
+	}
+
+	@Test
+	public void testKeepsTheHeavyHittersOverTheBudget() {
+		// room for about 100 exact phrases
+		PhraseCounter counter = new PhraseCounter(100 * 150, 1 << 12, 20);
+		Map<String, Long> counts = new HashMap<>();
+		Map<String, Integer> firstIds = new HashMap<>();
+		Random random = new Random(5);
+
+		// boilerplate phrases repeated among a long tail of distinct ones, added from several threads
+		int[] ids = IntStream.range(0, 200_000).toArray();
+		String[] phrases = new String[ids.length];
+		for (int id : ids) {
+			phrases[id] = random.nextInt(4) == 0 ? "boilerplate " + random.nextInt(10) : "tail " + random.nextInt(100_000);
+			counts.merge(phrases[id], 1L, Long::sum);
+			firstIds.merge(phrases[id], id, Math::min);
+		}
+		IntStream.of(ids).parallel().forEach(id -> counter.add(phrases[id], id));
+
+		assertTrue(counter.isApproximate());
+		List<PhraseCounter.Entry> entries = counter.entries();
+		for (int i = 0; i < 10; i++) {
+			assertTrue(entries.get(i).phrase().startsWith("boilerplate "), entries.get(i).phrase());
+		}
+		for (PhraseCounter.Entry entry : entries) {
+			// never under the true count, never above the true first id
+			assertTrue(entry.count() >= counts.get(entry.phrase()), entry.phrase());
+			assertTrue(entry.firstId() <= firstIds.get(entry.phrase()), entry.phrase());
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PhraseDictionaryTest {
+	private static final int MISSING = Integer.MIN_VALUE;
+
+	private static final String[] FRAGMENTS = {
+			"appuyer", "sur", "la", "pédale", "de", "frein", "contrôler", "niveau", "d'huile", " ", " ", "-", "œ",
+			"été", "ΣΑΣ", "한국어", "𐐀", "𝐀", "\uD800", "\uDC00", "?", " ", "́", "a", "é"
+	};
+
+	private static String randomKey(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int fragments = random.nextInt(5);
+		for (int i = 0; i < fragments; i++) {
+			sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static void assertSameAsHashMap(boolean offHeap) {
+		Random random = new Random(offHeap ? 7 : 11);
+		Map<String, Integer> reference = new HashMap<>();
+		PhraseDictionary.Builder builder = PhraseDictionary.builder();
+
+		// short keys from few fragments: many duplicates, the last value wins
+		for (int i = 0; i < 50_000; i++) {
+			String key = randomKey(random);
+			reference.put(key, i);
+			builder.put(key, i);
+		}
+		PhraseDictionary dictionary = builder.build(offHeap);
+
+		assertEquals(reference.size(), dictionary.size());
+		for (Map.Entry<String, Integer> entry : reference.entrySet()) {
+			assertEquals(entry.getValue(), dictionary.get(entry.getKey(), MISSING), entry.getKey());
+			assertEquals(entry.getValue(), dictionary.get(new StringBuilder(entry.getKey()), MISSING), entry.getKey());
+		}
+		Map<String, Integer> visited = new HashMap<>();
+		dictionary.forEach((key, value) -> visited.put(key.toString(), value));
+		assertEquals(reference, visited);
+
+		for (int i = 0; i < 50_000; i++) {
+			String key = randomKey(random) + randomKey(random);
+			assertEquals(reference.getOrDefault(key, MISSING), dictionary.get(key, MISSING), key);
+		}
+	}
+
+	@Test
+	public void testSameLookupsAsHashMap() {
+		assertSameAsHashMap(false);
+	}
+
+	@Test
+	public void testSameLookupsAsHashMapOffHeap() {
+		assertSameAsHashMap(true);
+	}
+
+	@Test
+	public void testUnpairedSurrogatesAreNotReplaced() {
+		// String.getBytes(UTF_8) would encode both of them as "?"
+		PhraseDictionary dictionary = PhraseDictionary.builder()
+				.put("a\uD800", 1)
+				.put("a?", 2)
+				.put("a\uDC00", 3)
+				.build(false);
+
+		assertEquals(List.of(1, 2, 3, MISSING), List.of(dictionary.get("a\uD800", MISSING), dictionary.get("a?", MISSING),
+				dictionary.get("a\uDC00", MISSING), dictionary.get("a𐀀", MISSING)));
+	}
+
+	@Test
+	public void testEmptyDictionary() {
+		PhraseDictionary dictionary = PhraseDictionary.builder().build(true);
+		assertEquals(0, dictionary.size());
+		assertEquals(MISSING, dictionary.get("", MISSING));
+	}
+
+	@Test
+	public void testMappedDictionaryHasTheSameEntries() throws Exception {
+		Random random = new Random(3);
+		Map<String, Integer> reference = new HashMap<>();
+		PhraseDictionary.Builder builder = PhraseDictionary.builder();
+		for (int i = 0; i < 20_000; i++) {
+			String key = randomKey(random) + i % 5_000;
+			reference.put(key, i);
+			builder.put(key, i);
+		}
+
+		Path file = Files.createTempFile("dictionary", ".bin");
+		try {
+			long position;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				// at an offset, like after the header of a snapshot
+				channel.position(7);
+				position = channel.position();
+				builder.build(false).writeTo(channel);
+			}
+
+			PhraseDictionary mapped;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				mapped = PhraseDictionary.map(channel, position);
+			}
+			assertEquals(reference.size(), mapped.size());
+			for (Map.Entry<String, Integer> entry : reference.entrySet()) {
+				assertEquals(entry.getValue(), mapped.get(entry.getKey(), MISSING), entry.getKey());
+			}
+			assertEquals(MISSING, mapped.get("absent", MISSING));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
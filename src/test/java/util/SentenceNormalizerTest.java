@@ -0,0 +1,114 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SentenceNormalizerTest {
+	private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+	private static final String[] WORDS = {
+			"appuyer", "sur", "la", "pédale", "de", "frein", "Contrôler", "le", "niveau", "d'huile", "moteur",
+			"véhicule", "ÉLECTRIQUE", "clé", "à", "être", "garçon", "Noël", "œuvre", "Œil", "cœur", "ÆGIS", "maïs",
+			"été", "ΣΑΣ", "ὈΔΥΣΣΕΎΣ", "한국어", "\uD801\uDC00\uD801\uDC01", "\uD835\uDC00", "İstanbul",
+			"straße", "ﬁn", "Å", "Ω", "(placeholder)", "[x]", "{y}", "«", "»", "\"", "l'avant", "3.14", "1,234",
+			"12.", ".5", "2,", ",7", "1\u0301.2", "4.\u03015", "9;", ";", "\u2026", "\u2013", "\u00A0", "\u2003", "\u037E", "\u212B"
+	};
+	private static final String[] SEPARATORS = {
+			" ", " ", " ", "  ", "\t", "\r\n", "\n", "\u000B", "\f", ";", ":", "?", "!", ",", ".", ", ", ". ", " - ",
+			"\u0001", "\u001F", "\u00A0", "\u0301", ""
+	};
+
+	// The normalization as it was implemented before SentenceNormalizer, kept as the reference
+	private static String referenceNormalize(String libelle) {
+		String result = Normalizer.normalize(libelle, Normalizer.Form.NFD);
+		result = DIACRITICS.matcher(result).replaceAll("");
+		result = result.replaceAll("[\\r\\n;:?!«»\"]", " ");
+		result = result.replaceAll("(?<!\\d)[.,]|[.,](?!\\d)", " ");
+		result = result.replaceAll("\\s+", " ").trim();
+		return result.toLowerCase();
+	}
+
+	private static void assertSameAsReference(SentenceNormalizer normalizer, String sentence) throws Exception {
+		String expected = referenceNormalize(sentence);
+		normalizer.normalize(sentence);
+
+		StringWriter written = new StringWriter();
+		normalizer.writeTo(written);
+
+		assertEquals(expected, normalizer.result(), "normalized: " + sentence);
+		assertEquals(expected, written.toString(), "written: " + sentence);
+		assertEquals(expected.split("\\s+").length, normalizer.wordCount(), "word count: " + sentence);
+	}
+
+	private static String generateSentence(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int tokens = random.nextInt(30);
+		for (int i = 0; i < tokens; i++) {
+			if (random.nextInt(40) == 0) {
+				sb.append((char) random.nextInt(Character.MAX_VALUE + 1));
+			} else {
+				sb.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testGeneratedCorpusMatchesReference() throws Exception {
+		SentenceNormalizer normalizer = new SentenceNormalizer();
+		Random random = new Random(20240611);
+
+		for (int i = 0; i < 200_000; i++) {
+			assertSameAsReference(normalizer, generateSentence(random));
+		}
+	}
+
+	@Test
+	public void testEveryCharMatchesReference() throws Exception {
+		SentenceNormalizer normalizer = new SentenceNormalizer();
+
+		for (int c = 0; c <= Character.MAX_VALUE; c++) {
+			String s = String.valueOf((char) c);
+			assertSameAsReference(normalizer, "Ab" + s + "cD");
+			assertSameAsReference(normalizer, "1" + s + "2");
+			assertSameAsReference(normalizer, s + ".5 " + s);
+		}
+	}
+
+	@Test
+	public void testTurkishLocaleMatchesReference() throws Exception {
+		Locale defaultLocale = Locale.getDefault();
+		try {
+			Locale.setDefault(Locale.forLanguageTag("tr"));
+			SentenceNormalizer normalizer = new SentenceNormalizer();
+			Random random = new Random(7);
+
+			for (int i = 0; i < 20_000; i++) {
+				assertSameAsReference(normalizer, generateSentence(random));
+			}
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
+	@Test
+	public void testExamples() throws Exception {
+		SentenceNormalizer normalizer = new SentenceNormalizer();
+
+		normalizer.normalize("  Appuyer sur la pédale; puis « contrôler » le niveau : 3.14, 1,234 ou 12.  ");
+		assertEquals("appuyer sur la pedale puis controler le niveau 3.14 1,234 ou 12", normalizer.result());
+		assertEquals(12, normalizer.wordCount());
+
+		normalizer.normalize(" ;; ");
+		assertEquals("", normalizer.result());
+		assertEquals(1, normalizer.wordCount());
+	}
+}